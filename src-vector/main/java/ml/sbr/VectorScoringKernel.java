@@ -0,0 +1,105 @@
+package main.java.ml.sbr;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scoring kernel with the JDK Vector API.
+ * It is in a separate source directory, so the rest of the package builds without the incubator module.
+ * Compiling and running it needs the option --add-modules jdk.incubator.vector;
+ * without the module (or the class) {@link ScoringKernel} falls back to the scalar kernel.
+ * Only the heap array operations of the API are used, since its buffer/memory access methods differ across JDK versions.
+ * The element-wise kernels use the widest vectors of the CPU; {@link #sumOfSquares} uses two 256-bit vectors
+ * (four doubles each), which hold the partial sums in the order of the scalar kernel.
+ * The kernel needs at least 256-bit vectors, which every AVX2 x86 CPU has; on CPUs with narrower vectors it is not used.
+ */
+final class VectorScoringKernel extends ScoringKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> SUM_SPECIES = DoubleVector.SPECIES_256;
+
+    VectorScoringKernel() {
+        if (SPECIES.vectorBitSize() < SUM_SPECIES.vectorBitSize()) {
+            throw new UnsupportedOperationException("No 256-bit vectors on this CPU.");
+        }
+    }
+
+    @Override
+    void axpy(double[] a, double[][] x, int m, double[] y, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector acc = DoubleVector.fromArray(SPECIES, y, i);
+            for (int r = 0; r < m; r++) {
+                // Multiply and add are not fused, so the same as the scalar y[i] + a[r] * x[r][i]
+                acc = acc.add(DoubleVector.fromArray(SPECIES, x[r], i).mul(a[r]));
+            }
+            acc.intoArray(y, i);
+        }
+        for (; i < n; i++) {
+            double t = y[i];
+            for (int r = 0; r < m; r++) {
+                t += a[r] * x[r][i];
+            }
+            y[i] = t;
+        }
+    }
+
+    @Override
+    double maxAbs(double[] x, int n) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector maxv = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            // Compare and blend rather than max, which is slower because of its NaN and signed zero handling;
+            // NaN values are skipped as in the scalar kernel
+            DoubleVector t = DoubleVector.fromArray(SPECIES, x, i).abs();
+            maxv = maxv.blend(t, t.compare(VectorOperators.GT, maxv));
+        }
+        double max = maxv.reduceLanes(VectorOperators.MAX);
+        for (; i < n; i++) {
+            double t = Math.abs(x[i]);
+            if (t > max) { max = t; }
+        }
+        return max;
+    }
+
+    @Override
+    double sumOfSquares(double[] x, int n) {
+        // Lanes k of lo and hi are the partial sums k and k + 4
+        DoubleVector lo = DoubleVector.zero(SUM_SPECIES);
+        DoubleVector hi = DoubleVector.zero(SUM_SPECIES);
+        int bound = n - n % PARTIAL_SUMS;
+        int i = 0;
+        for (; i < bound; i += PARTIAL_SUMS) {
+            DoubleVector a = DoubleVector.fromArray(SUM_SPECIES, x, i);
+            DoubleVector b = DoubleVector.fromArray(SUM_SPECIES, x, i + 4);
+            lo = lo.add(a.mul(a));
+            hi = hi.add(b.mul(b));
+        }
+        DoubleVector pairs = lo.add(hi);
+        double sum = pairs.lane(0) + pairs.lane(1) + pairs.lane(2) + pairs.lane(3);
+        for (; i < n; i++) {
+            sum += x[i] * x[i];
+        }
+        return sum;
+    }
+
+    @Override
+    void divide(double[] x, int n, double divisor) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, i).div(divisor).intoArray(x, i);
+        }
+        for (; i < n; i++) {
+            x[i] /= divisor;
+        }
+    }
+
+    @Override
+    String name() {
+        return "vector(" + SPECIES.vectorBitSize() + " bits)";
+    }
+}
@@ -104,6 +104,57 @@ public abstract class AbstractSBR {
         }
     }
 
+    /**
+     * Apply max-norm normalization to the first n values of a dense vector. (In place.)
+     * Uses the Vector API kernel when available.
+     *
+     * @param vec Array of doubles.
+     * @param n   Number of values to normalize.
+     */
+    protected static void maxNormalize(double[] vec, int n) {
+        ScoringKernel kernel = ScoringKernel.get();
+        double max = kernel.maxAbs(vec, n);
+        if (max != 0.0) {
+            kernel.divide(vec, n, max);
+        }
+    }
+
+    /**
+     * Apply Cosine/Euclidean normalization to the first n values of a dense vector. (In place.)
+     * Uses the Vector API kernel when available.
+     *
+     * @param vec Array of doubles.
+     * @param n   Number of values to normalize.
+     */
+    protected static void cosineNormalize(double[] vec, int n) {
+        ScoringKernel kernel = ScoringKernel.get();
+        double norm = Math.sqrt(kernel.sumOfSquares(vec, n));
+        if (norm != 0.0) {
+            kernel.divide(vec, n, norm);
+        }
+    }
+
+    /**
+     * Is a norm type identifier for the Cosine/Euclidean norm?
+     */
+    protected static boolean isEuclidean(String spec) {
+        return "euclidean".equals(spec) || "cosine".equals(spec);
+    }
+
+    /**
+     * Normalize a stream / mix with a norm. (In place.)
+     *
+     * @param mix  Hashmap to normalize.
+     * @param spec Norm type identifier, "euclidean" (or "cosine") or "max-norm".
+     */
+    protected static void normalize(Map<String, Double> mix, String spec) {
+        if (isEuclidean(spec)) {
+            cosineNormalize(mix);
+        } else {
+            maxNormalize(mix);
+        }
+    }
+
     //========================================================
     // Inverse index merging functions
     //========================================================
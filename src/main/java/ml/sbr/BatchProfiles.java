@@ -0,0 +1,205 @@
+package main.java.ml.sbr;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Profiles of many scored-item collections (cohorts) in compact primitive form.
+ * The profiles are stored in compressed sparse row format over a shared tag dictionary:
+ * the tags of cohort c are at positions [offsets[c], offsets[c+1]) of the tag ids and scores arrays,
+ * sorted in descending order of their scores.
+ *
+ * Batch profiles of an off-heap recommender resolve tag names from the off-heap index they were made from
+ * and hold that index, so they stay readable after the recommender is closed or reloads its data.
+ * Close them when done (e.g. with try-with-resources) to let go of the index earlier than garbage collection does;
+ * the tag names of closed batch profiles may no longer be available.
+ */
+public class BatchProfiles implements AutoCloseable {
+
+    // Number of cohorts processed by one parallel task
+    static final int BLOCK_SIZE = 256;
+
+    private final IntFunction<String> tagNames;
+    private final int tagCount;
+    private final int[] offsets;
+    private final int[] tagIds;
+    private final double[] scores;
+
+    // Lets go of the source of the tag names
+    private volatile Runnable release = () -> {};
+
+    private BatchProfiles(IntFunction<String> tagNames, int tagCount, int[] offsets, int[] tagIds, double[] scores) {
+        this.tagNames = tagNames;
+        this.tagCount = tagCount;
+        this.offsets = offsets;
+        this.tagIds = tagIds;
+        this.scores = scores;
+    }
+
+    //========================================================
+    // Computation
+    //========================================================
+
+    /**
+     * Source of item rows: adds a weighted item row (tag id to weight) into a score accumulator over tag ids.
+     */
+    interface RowAccumulator {
+        void accumulate(int row, double weight, ScoreAccumulator acc);
+    }
+
+    /**
+     * Compute the profiles of cohorts in parallel over blocks of cohorts.
+     * The item rows are read from the row source, so rows shared by many cohorts are not copied.
+     *
+     * @param tagNames      Resolver of the names of the tag ids used in the rows.
+     * @param tagCount      Number of tag ids.
+     * @param rows          Source of the item rows.
+     * @param cohortRows    For each cohort the row indexes of its items; null for a failed cohort.
+     * @param cohortWeights For each cohort the weights of its items.
+     * @param ntags         The (maximum) number of tags per profile.
+     * @param normalization Norm type identifier for the normalization of the profiles (see {@link AbstractSBR#normalize});
+     *                      null for no normalization.
+     * @return Batch profiles.
+     */
+    static BatchProfiles compute(IntFunction<String> tagNames,
+                                 int tagCount,
+                                 RowAccumulator rows,
+                                 int[][] cohortRows,
+                                 double[][] cohortWeights,
+                                 int ntags,
+                                 String normalization) {
+
+        int ncohorts = cohortRows.length;
+        int[][] resTags = new int[ncohorts][];
+        double[][] resScores = new double[ncohorts][];
+
+        int nblocks = (ncohorts + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        // One accumulator per worker thread (and the calling thread)
+        ScoreAccumulator.Pool accumulators = new ScoreAccumulator.Pool(tagCount, ForkJoinPool.getCommonPoolParallelism() + 1);
+
+        IntStream.range(0, nblocks).parallel().forEach(b -> {
+            ScoreAccumulator acc = accumulators.borrow(tagCount);
+            int to = Math.min(ncohorts, (b + 1) * BLOCK_SIZE);
+            for (int c = b * BLOCK_SIZE; c < to; c++) {
+                acc.clear();
+
+                int[] cr = cohortRows[c];
+                if (cr != null) {
+                    for (int k = 0; k < cr.length; k++) {
+                        rows.accumulate(cr[k], cohortWeights[c][k], acc);
+                    }
+                }
+
+                if (normalization != null) {
+                    acc.normalize(normalization);
+                }
+
+                int[] top = acc.topK(ntags);
+                double[] topScores = new double[top.length];
+                for (int k = 0; k < top.length; k++) {
+                    topScores[k] = acc.score(top[k]);
+                }
+                resTags[c] = top;
+                resScores[c] = topScores;
+            }
+            accumulators.giveBack(acc);
+        });
+
+        // Concatenate into compressed sparse rows
+        int[] offsets = new int[ncohorts + 1];
+        for (int c = 0; c < ncohorts; c++) {
+            offsets[c + 1] = offsets[c] + resTags[c].length;
+        }
+
+        int[] tagIds = new int[offsets[ncohorts]];
+        double[] scores = new double[offsets[ncohorts]];
+        for (int c = 0; c < ncohorts; c++) {
+            System.arraycopy(resTags[c], 0, tagIds, offsets[c], resTags[c].length);
+            System.arraycopy(resScores[c], 0, scores, offsets[c], resScores[c].length);
+        }
+
+        return new BatchProfiles(tagNames, tagCount, offsets, tagIds, scores);
+    }
+
+    //========================================================
+    // Access
+    //========================================================
+
+    /**
+     * Number of cohorts.
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Number of tags in the profile of a cohort.
+     */
+    public int profileLength(int cohort) {
+        return offsets[cohort + 1] - offsets[cohort];
+    }
+
+    /**
+     * Tag ids of the profile of a cohort in descending order of their scores.
+     */
+    public int[] tagIds(int cohort) {
+        return Arrays.copyOfRange(tagIds, offsets[cohort], offsets[cohort + 1]);
+    }
+
+    /**
+     * Scores of the profile of a cohort in descending order.
+     */
+    public double[] scores(int cohort) {
+        return Arrays.copyOfRange(scores, offsets[cohort], offsets[cohort + 1]);
+    }
+
+    /**
+     * Name of a tag id.
+     */
+    public String tagName(int tagId) {
+        return tagNames.apply(tagId);
+    }
+
+    /**
+     * Number of tags in the dictionary of the tag ids.
+     */
+    public int tagCount() {
+        return tagCount;
+    }
+
+    /**
+     * Profile of a cohort in the form returned by {@link CoreSBR#profile}.
+     *
+     * @param cohort Cohort index.
+     * @return A list of string-double pairs sorted in descending order of their values.
+     */
+    public LinkedHashMap<String, Double> profile(int cohort) {
+        LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+        for (int p = offsets[cohort]; p < offsets[cohort + 1]; p++) {
+            res.put(tagNames.apply(tagIds[p]), scores[p]);
+        }
+        return res;
+    }
+
+    //========================================================
+    // Life cycle
+    //========================================================
+
+    /**
+     * Set the action that lets go of the source of the tag names; it is run on close.
+     */
+    void onClose(Runnable release) {
+        this.release = release;
+    }
+
+    /**
+     * Let go of the source of the tag names. The tag ids and scores stay available.
+     */
+    @Override
+    public void close() {
+        release.run();
+    }
+}
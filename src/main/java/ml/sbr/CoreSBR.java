@@ -4,6 +4,8 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
@@ -17,8 +19,8 @@ public class CoreSBR extends AbstractSBR {
     // Data members
     //========================================================
     Map<String, String> smrMatrix;
-    Map<String, Map<String, Double>> itemInverseIndexes;
-    Map<String, Map<String, Double>> tagInverseIndexes;
+    volatile Map<String, Map<String, Double>> itemInverseIndexes;
+    volatile Map<String, Map<String, Double>> tagInverseIndexes;
 
     Map<String, ArrayList<String>> tagTypeToTags;
     Map<String, Double> globalWeights;
@@ -26,6 +28,12 @@ public class CoreSBR extends AbstractSBR {
     Set<String> knownTags;
     Set<String> knownItems;
 
+    // Norm used when profiles and recommendations are normalized
+    String normalizationSpec = "max-norm";
+
+    // Background making of the item inverse indexes
+    volatile CompletableFuture<Void> warmUpFuture;
+
     //========================================================
     // Getters and Setters
     //========================================================
@@ -40,7 +48,14 @@ public class CoreSBR extends AbstractSBR {
 
     public Map<String, Map<String, Double>> getItemInverseIndexes() {
         if ( this.itemInverseIndexes == null || this.itemInverseIndexes.isEmpty() ) {
-            this.transposeTagInverseIndexes();
+            CompletableFuture<Void> warmUp = this.warmUpFuture;
+            if ( warmUp != null && !warmUp.isDone() ) {
+                // Wait for the background transposing instead of starting another one
+                warmUp.exceptionally(e -> null).join();
+            }
+            if ( this.itemInverseIndexes == null || this.itemInverseIndexes.isEmpty() ) {
+                this.transposeTagInverseIndexes();
+            }
         }
         return itemInverseIndexes;
     }
@@ -53,8 +68,16 @@ public class CoreSBR extends AbstractSBR {
         return tagInverseIndexes;
     }
 
-    public void setTagInverseIndexes(Map<String, Map<String, Double>> tagInverseIndexes) {
+    /**
+     * Set the tag inverse indexes.
+     * The item inverse indexes and the known items made from the previous tag inverse indexes are dropped,
+     * so the recommender is not ready until they are made again; the result of a warm-up in progress is discarded.
+     */
+    public synchronized void setTagInverseIndexes(Map<String, Map<String, Double>> tagInverseIndexes) {
         this.tagInverseIndexes = tagInverseIndexes;
+        this.itemInverseIndexes = null;
+        this.knownItems = null;
+        this.warmUpFuture = null;
     }
 
     public Map<String, ArrayList<String>> getTagTypeToTags() {
@@ -89,6 +112,23 @@ public class CoreSBR extends AbstractSBR {
         this.knownItems = knownItems;
     }
 
+    public String getNormalizationSpec() {
+        return normalizationSpec;
+    }
+
+    /**
+     * Set the norm used when profiles and recommendations are normalized.
+     *
+     * @param normalizationSpec Norm type identifier, "max-norm" (the default) or "euclidean" (or "cosine").
+     */
+    public void setNormalizationSpec(String normalizationSpec) {
+        if (!"max-norm".equals(normalizationSpec) && !isEuclidean(normalizationSpec)) {
+            logger.warning("Unknown normalization spec: " + normalizationSpec + "; the spec is not changed.");
+            return;
+        }
+        this.normalizationSpec = normalizationSpec;
+    }
+
 
     //========================================================
     // Clone
@@ -221,14 +261,81 @@ public class CoreSBR extends AbstractSBR {
         final long then = System.nanoTime();
 
         // Transpose
-        this.setItemInverseIndexes(this.transposeTagInverseIndexes(this.getTagInverseIndexes()));
-        this.setKnownItems(this.getItemInverseIndexes().keySet());
+        Map<String, Map<String, Double>> tags = this.getTagInverseIndexes();
+        Map<String, Map<String, Double>> res = this.transposeTagInverseIndexes(tags);
+
+        synchronized (this) {
+            // Do not publish a transpose of tag inverse indexes that were replaced meanwhile
+            if (this.tagInverseIndexes != tags) {
+                logger.info("The tag inverse indexes were replaced while transposing; the result is discarded.");
+                return;
+            }
+
+            // The known items are set first, so they are in place when the item inverse indexes are seen
+            this.setKnownItems(res.keySet());
+            this.setItemInverseIndexes(res);
+        }
 
         // Log timing
         final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
         logger.info(".transposeTagInverseIndexes for (ms): " + millis);
     }
 
+    //========================================================
+    // Warm-up
+    //========================================================
+
+    /**
+     * Is the recommender ready to serve all queries cheaply?
+     * The queries by profile use only the tag inverse indexes and can be served before readiness;
+     * the queries by items (profile, recommend) need the item inverse indexes.
+     *
+     * @return True if the item inverse indexes of the current tag inverse indexes are made.
+     */
+    public boolean isReady() {
+        return this.itemInverseIndexes != null;
+    }
+
+    /**
+     * Start making the item inverse indexes in a background (daemon) thread.
+     * Calls made before the background transposing is finished are not repeating it:
+     * getItemInverseIndexes waits for the background result.
+     *
+     * @return A future that is completed when the recommender is ready.
+     * @see isReady
+     */
+    public synchronized CompletableFuture<Void> warmUpAsync() {
+
+        if (this.isReady()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (this.warmUpFuture == null || this.warmUpFuture.isDone()) {
+            Executor daemon = r -> {
+                Thread t = new Thread(r, "sbr-warm-up");
+                t.setDaemon(true);
+                t.start();
+            };
+
+            this.warmUpFuture = CompletableFuture.runAsync(this::transposeTagInverseIndexes, daemon)
+                    .whenComplete((res, e) -> {
+                        if (e != null) {
+                            logger.warning("Warm-up failed: " + e.getMessage());
+                        }
+                    });
+        }
+
+        return this.warmUpFuture;
+    }
+
+    /**
+     * Make the item inverse indexes, if not made already, and wait until the recommender is ready.
+     * @see warmUpAsync
+     */
+    public void warmUp() {
+        this.warmUpAsync().join();
+    }
+
     //========================================================
     // Profile
     //========================================================
@@ -294,7 +401,7 @@ public class CoreSBR extends AbstractSBR {
 
         // Normalize
         if (normalize) {
-            this.maxNormalize(itemMix);
+            this.normalize(itemMix, this.getNormalizationSpec());
         }
 
         // Reverse sort
@@ -313,6 +420,128 @@ public class CoreSBR extends AbstractSBR {
         return res;
     }
 
+    //========================================================
+    // Batch profiles
+    //========================================================
+
+    /**
+     * Compute profiles for many collections of scored items (cohorts).
+     * Each distinct item inverse index row is converted into primitive arrays once and shared
+     * by all cohorts; the cohorts are profiled in parallel over blocks.
+     * A cohort with an unknown item (when unknown items are not ignored) or without known items gets an empty profile.
+     *
+     * @param itemsList     A list of string-double (hash-)maps of scored items.
+     * @param ntags         A positive integer for the (maximum) number of tags per profile;
+     *                      use Integer.MAX_VALUE for full profiles.
+     * @param normalize     A Boolean: should the profiles be normalized or not?
+     * @param ignoreUnknown A Boolean: should unknown items be ignored or not?
+     * @return Profiles in compact primitive form.
+     * @see profile
+     */
+    public BatchProfiles profiles(
+            List<Map<String, Double>> itemsList,
+            Integer ntags,
+            Boolean normalize,
+            Boolean ignoreUnknown) {
+
+        // Start time
+        final long then = System.nanoTime();
+
+        // Deduplicate the item rows touched by the cohorts
+        Map<String, Integer> rowIndexes = new HashMap<>();
+        List<Map<String, Double>> rows = new ArrayList<>();
+
+        int[][] cohortRows = new int[itemsList.size()][];
+        double[][] cohortWeights = new double[itemsList.size()][];
+        int nfailed = 0;
+
+        for (int c = 0; c < itemsList.size(); c++) {
+
+            Map<String, Double> items = itemsList.get(c);
+            int[] r = new int[items.size()];
+            double[] w = new double[items.size()];
+            int m = 0;
+            boolean failed = false;
+
+            for (Map.Entry<String, Double> entry : items.entrySet()) {
+
+                Map<String, Double> row = this.getItemInverseIndexes().get(entry.getKey());
+
+                if (row == null) {
+                    if (!ignoreUnknown) {
+                        failed = true;
+                        break;
+                    }
+                    continue;
+                }
+
+                Integer ri = rowIndexes.get(entry.getKey());
+                if (ri == null) {
+                    ri = rows.size();
+                    rowIndexes.put(entry.getKey(), ri);
+                    rows.add(row);
+                }
+
+                r[m] = ri;
+                w[m] = entry.getValue();
+                m++;
+            }
+
+            if (failed || m == 0) {
+                nfailed++;
+            } else {
+                cohortRows[c] = Arrays.copyOf(r, m);
+                cohortWeights[c] = Arrays.copyOf(w, m);
+            }
+        }
+
+        if (nfailed > 0) {
+            logger.warning("Empty profiles for " + nfailed + " cohorts with unknown items or without known items.");
+        }
+
+        // Convert the distinct rows into primitive arrays over the tags they have
+        Map<String, Integer> tagIndexes = new HashMap<>();
+        List<String> tagNames = new ArrayList<>();
+
+        int[][] rowTags = new int[rows.size()][];
+        double[][] rowWeights = new double[rows.size()][];
+
+        for (int i = 0; i < rows.size(); i++) {
+            rowTags[i] = new int[rows.get(i).size()];
+            rowWeights[i] = new double[rows.get(i).size()];
+
+            int p = 0;
+            for (Map.Entry<String, Double> entry : rows.get(i).entrySet()) {
+                Integer t = tagIndexes.get(entry.getKey());
+                if (t == null) {
+                    t = tagNames.size();
+                    tagIndexes.put(entry.getKey(), t);
+                    tagNames.add(entry.getKey());
+                }
+                rowTags[i][p] = t;
+                rowWeights[i][p] = entry.getValue();
+                p++;
+            }
+        }
+
+        BatchProfiles.RowAccumulator rowSource = (row, weight, acc) -> {
+            int[] tags = rowTags[row];
+            double[] weights = rowWeights[row];
+            for (int p = 0; p < tags.length; p++) {
+                acc.add(tags[p], weight * weights[p]);
+            }
+        };
+
+        BatchProfiles res = BatchProfiles.compute(tagNames::get, tagNames.size(), rowSource,
+                cohortRows, cohortWeights, ntags, normalize ? this.getNormalizationSpec() : null);
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".profiles for (ms): " + millis);
+
+        return res;
+    }
+
     //========================================================
     // Recommend by history
     //========================================================
@@ -339,7 +568,7 @@ public class CoreSBR extends AbstractSBR {
         final long then = System.nanoTime();
 
         // It is not fast, but it is just easy to compute the profile and call recommendByProfile.
-        Map<String, Double> prof = this.profile(items, false, ignoreUnknown, warn);
+        Map<String, Double> prof = this.profile(items, false, warn, ignoreUnknown);
 
         LinkedHashMap<String, Double> res = this.recommendByProfile(prof, nrecs, normalize, ignoreUnknown, warn);
 
@@ -396,6 +625,55 @@ public class CoreSBR extends AbstractSBR {
         final long then = System.nanoTime();
 
         // Compute the profile recommendations
+        Map<String, Double> profMix = this.recommendationsMix(profile, ignoreUnknown, warn);
+
+        if (profMix == null) {
+            return new LinkedHashMap<>();
+        }
+
+        // Normalize
+        if (normalize) {
+            this.normalize(profMix, this.getNormalizationSpec());
+        }
+
+        // Reverse sort and pick top nrecs elements
+        LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+
+        profMix.entrySet()
+                .stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
+                .forEachOrdered(x -> res.put(x.getKey(), x.getValue()));
+
+        // Slow I presume, but I cannot figure out how to take quickly the first n elements.
+        LinkedHashMap<String, Double> res2 = new LinkedHashMap<>();
+        int k = 0;
+        for (Map.Entry<String, Double> entry : res.entrySet()) {
+            if (k++ < nrecs) {
+                res2.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".recommendByProfile for (ms): " + millis);
+        
+        // Result
+        return res2;
+    }
+
+    /**
+     * Blend the tag inverse indexes of a profile into a (hash-)map of scored items.
+     *
+     * @param profile       A (hash-)map that is a profile. The keys are tags, the values are scores.
+     * @param ignoreUnknown A Boolean: should unknown tags be ignored or not?
+     * @param warn          A Boolean: should warning messages be given or not?
+     * @return A (hash-)map of item scores, or null if an unknown tag is not ignored or none of the tags is known.
+     */
+    protected Map<String, Double> recommendationsMix(
+            Map<String, Double> profile,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
         Map<String, Double> profMix = new HashMap<String, Double>();
 
         Boolean foundOne = false;
@@ -416,7 +694,7 @@ public class CoreSBR extends AbstractSBR {
                 if (warn) {
                     System.out.println(msg);
                 }
-                return new LinkedHashMap<>();
+                return null;
             }
         }
 
@@ -427,37 +705,248 @@ public class CoreSBR extends AbstractSBR {
             if (warn) {
                 System.out.println(msg);
             }
-            return new LinkedHashMap<>();
+            return null;
+        }
+
+        return profMix;
+    }
+
+    //========================================================
+    // Recommend by profile with a cursor
+    //========================================================
+
+    /**
+     * Compute recommendations by profile lazily.
+     * The blended scores are retained by the returned cursor and ranked incrementally,
+     * so consecutive pages of recommendations are taken without recomputation.
+     *
+     * @param profile       A (hash-)map that is a profile. The keys are tags, the values are scores.
+     * @param normalize     A Boolean: should the recommendations be normalized or not?
+     * @param ignoreUnknown A Boolean: should unknown tags be ignored or not?
+     * @param warn          A Boolean: should warning messages be given or not?
+     * @return A cursor over string-double pairs in descending order of their values.
+     * @see RecommendationCursor#nextPage
+     */
+    public RecommendationCursor recommendByProfileCursor(
+            Map<String, Double> profile,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        Map<String, Double> profMix = this.recommendationsMix(profile, ignoreUnknown, warn);
+
+        if (profMix == null) {
+            return RecommendationCursor.empty();
         }
 
         // Normalize
         if (normalize) {
-            this.maxNormalize(profMix);
+            this.normalize(profMix, this.getNormalizationSpec());
         }
 
-        // Reverse sort and pick top nrecs elements
-        LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+        return RecommendationCursor.of(profMix);
+    }
 
-        profMix.entrySet()
-                .stream()
-                .sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
-                .forEachOrdered(x -> res.put(x.getKey(), x.getValue()));
+    /**
+     * Compute recommendations by scored items lazily.
+     * Makes a profile and delegates to recommendByProfileCursor.
+     *
+     * @param items         An string-double (hash-)map of scored items.
+     * @param normalize     A Boolean: should the recommendations be normalized or not?
+     * @param ignoreUnknown A Boolean: should unknown items be ignored or not?
+     * @param warn          A Boolean: should warning messages be given or not?
+     * @return A cursor over string-double pairs in descending order of their values.
+     * @see recommendByProfileCursor
+     */
+    public RecommendationCursor recommendCursor(
+            Map<String, Double> items,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
 
-        // Slow I presume, but I cannot figure out how to take quickly the first n elements.
-        LinkedHashMap<String, Double> res2 = new LinkedHashMap<>();
-        int k = 0;
-        for (Map.Entry<String, Double> entry : res.entrySet()) {
-            if (k++ < nrecs) {
-                res2.put(entry.getKey(), entry.getValue());
+        Map<String, Double> prof = this.profile(items, false, warn, ignoreUnknown);
+
+        if (prof.isEmpty()) {
+            return RecommendationCursor.empty();
+        }
+
+        return this.recommendByProfileCursor(prof, normalize, ignoreUnknown, warn);
+    }
+
+    //========================================================
+    // Explained recommendations
+    //========================================================
+
+    /**
+     * Check the number of contributors argument of the explained recommendations.
+     *
+     * @return True if the number is non-negative, otherwise false (after a warning).
+     */
+    protected static boolean checkContributorsCount(Integer ncontributors, Boolean warn) {
+        if (ncontributors == null || ncontributors < 0) {
+            String msg = "The number of contributors is expected to be a non-negative integer.";
+            logger.warning(msg);
+            if (warn) {
+                System.out.println(msg);
             }
+            return false;
+        }
+        return true;
+    }
+
+    protected static double contributionsFactor(double score, double total) {
+        return total != 0.0 ? score / total : 1.0;
+    }
+
+    /**
+     * Compute recommendations by profile together with the top contributing tags of each recommended item.
+     * The recommendations are computed with a single scoring pass (as with recommendByProfile);
+     * the contributions are looked up afterwards only for the recommended items,
+     * so the extra cost is proportional to nrecs times the profile length.
+     *
+     * @param profile       A (hash-)map that is a profile. The keys are tags, the values are scores.
+     * @param nrecs         A positive integer for the (maximum) number of recommendations.
+     * @param ncontributors A non-negative integer for the (maximum) number of contributing tags per recommendation.
+     * @param normalize     A Boolean: should the recommendations be normalized or not?
+     * @param ignoreUnknown A Boolean: should unknown tags be ignored or not?
+     * @param warn          A Boolean: should warning messages be given or not?
+     * @return Recommendations and explanations.
+     * @see recommendByProfile
+     */
+    public ExplainedRecommendations recommendByProfileExplained(
+            Map<String, Double> profile,
+            Integer nrecs,
+            Integer ncontributors,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        if (!checkContributorsCount(ncontributors, warn)) {
+            return new ExplainedRecommendations(new LinkedHashMap<>(), new LinkedHashMap<>());
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        LinkedHashMap<String, Double> recs = this.recommendByProfile(profile, nrecs, normalize, ignoreUnknown, warn);
+
+        // The profile tags by position
+        String[] tags = new String[profile.size()];
+        double[] tagScores = new double[profile.size()];
+        List<Map<String, Double>> tagRows = new ArrayList<>();
+        int ntags = 0;
+        for (Map.Entry<String, Double> entry : profile.entrySet()) {
+            Map<String, Double> itemToWeight = this.getTagInverseIndexes().get(entry.getKey());
+            if (itemToWeight != null) {
+                tags[ntags] = entry.getKey();
+                tagScores[ntags] = entry.getValue();
+                tagRows.add(itemToWeight);
+                ntags++;
+            }
+        }
+
+        // Contributions of the profile tags to each recommended item
+        LinkedHashMap<String, LinkedHashMap<String, Double>> explanations = new LinkedHashMap<>();
+        ExplainedRecommendations.ContributionBuffer buffer = new ExplainedRecommendations.ContributionBuffer(ncontributors);
+
+        for (Map.Entry<String, Double> rec : recs.entrySet()) {
+
+            buffer.reset();
+            for (int k = 0; k < ntags; k++) {
+                Double weight = tagRows.get(k).get(rec.getKey());
+                if (weight != null && weight != 0.0) {
+                    buffer.add(k, tagScores[k] * weight);
+                }
+            }
+
+            explanations.put(rec.getKey(), buffer.toMap(k -> tags[k], contributionsFactor(rec.getValue(), buffer.total())));
         }
 
         // Log timing
         final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
-        logger.info(".recommendByProfile for (ms): " + millis);
-        
-        // Result
-        return res2;
+        logger.info(".recommendByProfileExplained for (ms): " + millis);
+
+        return new ExplainedRecommendations(recs, explanations);
+    }
+
+    /**
+     * Compute recommendations by scored items together with the top contributing history items of each recommended item.
+     * The recommendations are computed as with recommend; the contributions are computed afterwards
+     * only for the recommended items: the tags of each recommended item are taken once and
+     * dotted with the tags of each history item.
+     *
+     * @param items         An string-double (hash-)map of scored items.
+     * @param nrecs         A positive integer for the (maximum) number of recommendations.
+     * @param ncontributors A non-negative integer for the (maximum) number of contributing items per recommendation.
+     * @param normalize     A Boolean: should the recommendations be normalized or not?
+     * @param ignoreUnknown A Boolean: should unknown items be ignored or not?
+     * @param warn          A Boolean: should warning messages be given or not?
+     * @return Recommendations and explanations.
+     * @see recommend
+     */
+    public ExplainedRecommendations recommendExplained(
+            Map<String, Double> items,
+            Integer nrecs,
+            Integer ncontributors,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        if (!checkContributorsCount(ncontributors, warn)) {
+            return new ExplainedRecommendations(new LinkedHashMap<>(), new LinkedHashMap<>());
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        LinkedHashMap<String, Double> recs = this.recommend(items, nrecs, normalize, ignoreUnknown, warn);
+
+        // The history items by position, with their tags
+        String[] hist = new String[items.size()];
+        double[] histScores = new double[items.size()];
+        List<Map<String, Double>> histRows = new ArrayList<>();
+        int nhist = 0;
+        for (Map.Entry<String, Double> entry : items.entrySet()) {
+            Map<String, Double> tagToWeight = this.getItemInverseIndexes().get(entry.getKey());
+            if (tagToWeight != null) {
+                hist[nhist] = entry.getKey();
+                histScores[nhist] = entry.getValue();
+                histRows.add(tagToWeight);
+                nhist++;
+            }
+        }
+
+        // Contributions of the history items to each recommended item
+        LinkedHashMap<String, LinkedHashMap<String, Double>> explanations = new LinkedHashMap<>();
+        ExplainedRecommendations.ContributionBuffer buffer = new ExplainedRecommendations.ContributionBuffer(ncontributors);
+
+        for (Map.Entry<String, Double> rec : recs.entrySet()) {
+
+            buffer.reset();
+            Map<String, Double> recRow = this.getItemInverseIndexes().get(rec.getKey());
+
+            for (int k = 0; k < nhist && recRow != null; k++) {
+                double contribution = 0.0;
+                for (Map.Entry<String, Double> tagEntry : histRows.get(k).entrySet()) {
+                    Double weight = recRow.get(tagEntry.getKey());
+                    if (weight != null) {
+                        contribution += tagEntry.getValue() * weight;
+                    }
+                }
+
+                if (contribution != 0.0) {
+                    buffer.add(k, histScores[k] * contribution);
+                }
+            }
+
+            explanations.put(rec.getKey(), buffer.toMap(k -> hist[k], contributionsFactor(rec.getValue(), buffer.total())));
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".recommendExplained for (ms): " + millis);
+
+        return new ExplainedRecommendations(recs, explanations);
     }
 
     //========================================================
@@ -502,6 +991,13 @@ public class CoreSBR extends AbstractSBR {
     //========================================================
     // Retrieve by query elements
     //========================================================
+    /**
+     * The tags that have inverse indexes.
+     */
+    protected Set<String> inverseIndexTags() {
+        return this.getTagInverseIndexes().keySet();
+    }
+
     /** Retrieve by query elements.
     * @param should: A profile specification used to recommend with.
     * @param must: A profile specification used to filter with. The items in the result must have the tags in the must argument.
@@ -546,7 +1042,7 @@ public class CoreSBR extends AbstractSBR {
             Set<String> finalMustItems = mustItems;
             this.filterByProfile(must, mustType, warn).forEach(x -> { finalMustItems.add(x); });
         } else {
-            mustItems = this.getTagInverseIndexes().keySet();
+            mustItems = this.inverseIndexTags();
         }
 
         res.retainAll(mustItems);
@@ -557,7 +1053,7 @@ public class CoreSBR extends AbstractSBR {
             Set<String> finalMustNotItems = mustNotItems;
             this.filterByProfile(mustNot, mustNotType, warn).forEach(x -> { finalMustNotItems.add(x); });
         } else {
-            mustNotItems = this.getTagInverseIndexes().keySet();
+            mustNotItems = this.inverseIndexTags();
         }
 
         res.removeAll(mustNotItems);
@@ -0,0 +1,116 @@
+package main.java.ml.sbr;
+
+import java.util.LinkedHashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Recommendations together with their top contributors (tags or history items).
+ * The contributions of an item are scaled like its score, so all of its contributions sum to the score.
+ */
+public class ExplainedRecommendations {
+
+    private final LinkedHashMap<String, Double> recommendations;
+    private final LinkedHashMap<String, LinkedHashMap<String, Double>> explanations;
+
+    ExplainedRecommendations(LinkedHashMap<String, Double> recommendations,
+                             LinkedHashMap<String, LinkedHashMap<String, Double>> explanations) {
+        this.recommendations = recommendations;
+        this.explanations = explanations;
+    }
+
+    /**
+     * @return A list of string-double pairs sorted in descending order of their values.
+     */
+    public LinkedHashMap<String, Double> getRecommendations() {
+        return recommendations;
+    }
+
+    /**
+     * @return For each recommended item a list of contributor-contribution pairs sorted in descending order.
+     */
+    public LinkedHashMap<String, LinkedHashMap<String, Double>> getExplanations() {
+        return explanations;
+    }
+
+    /**
+     * Contributors of a recommended item.
+     *
+     * @param item Recommended item.
+     * @return A list of contributor-contribution pairs sorted in descending order, or null if the item is not recommended.
+     */
+    public LinkedHashMap<String, Double> explain(String item) {
+        return explanations.get(item);
+    }
+
+    @Override
+    public String toString() {
+        return "ExplainedRecommendations{recommendations=" + recommendations + ", explanations=" + explanations + "}";
+    }
+
+    //========================================================
+    // Bounded contribution buffer
+    //========================================================
+
+    /**
+     * Keeps the top contributors of one item in fixed size arrays sorted in descending order.
+     * Contributors are given as integer keys (e.g. ids or positions) and named only when converted to a map,
+     * so a buffer can be reset and reused for many items.
+     */
+    static final class ContributionBuffer {
+
+        private final int[] keys;
+        private final double[] values;
+        private int size;
+        private double total;
+
+        ContributionBuffer(int capacity) {
+            this.keys = new int[Math.max(0, capacity)];
+            this.values = new double[Math.max(0, capacity)];
+            this.size = 0;
+            this.total = 0.0;
+        }
+
+        void reset() {
+            size = 0;
+            total = 0.0;
+        }
+
+        void add(int key, double value) {
+            total += value;
+
+            if (keys.length == 0 || (size == keys.length && value <= values[size - 1])) {
+                return;
+            }
+
+            int i = size < keys.length ? size++ : size - 1;
+            while (i > 0 && values[i - 1] < value) {
+                keys[i] = keys[i - 1];
+                values[i] = values[i - 1];
+                i--;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        /**
+         * Sum of all added contributions, not only of the kept ones.
+         */
+        double total() {
+            return total;
+        }
+
+        /**
+         * The kept contributions multiplied by a factor.
+         *
+         * @param names  Names of the contributor keys.
+         * @param factor Factor.
+         */
+        LinkedHashMap<String, Double> toMap(IntFunction<String> names, double factor) {
+            LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+            for (int k = 0; k < size; k++) {
+                res.put(names.apply(keys[k]), values[k] * factor);
+            }
+            return res;
+        }
+    }
+}
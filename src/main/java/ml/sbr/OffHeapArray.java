@@ -0,0 +1,215 @@
+package main.java.ml.sbr;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fixed length array of primitives stored in direct (off-heap) byte buffers.
+ * The array is split into chunks of at most 1 GB, so lengths beyond the
+ * 2 GB limit of a single ByteBuffer are supported.
+ * Elements never straddle chunks, because the chunk size is a multiple of the element size.
+ */
+final class OffHeapArray implements AutoCloseable {
+
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_BYTES - 1;
+
+    private final int elementShift;
+    private final long length;
+    private ByteBuffer[] chunks;
+
+    //========================================================
+    // Creation
+    //========================================================
+
+    private OffHeapArray(long length, int elementShift) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative off-heap array length: " + length);
+        }
+
+        this.elementShift = elementShift;
+        this.length = length;
+
+        long bytes = length << elementShift;
+        int nchunks = (int) ((bytes + CHUNK_MASK) >>> CHUNK_SHIFT);
+
+        this.chunks = new ByteBuffer[Math.max(nchunks, 1)];
+        for (int i = 0; i < this.chunks.length; i++) {
+            long chunkBytes = Math.min(CHUNK_BYTES, bytes - ((long) i << CHUNK_SHIFT));
+            this.chunks[i] = ByteBuffer.allocateDirect((int) Math.max(chunkBytes, 0)).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    static OffHeapArray ofBytes(long length) {
+        return new OffHeapArray(length, 0);
+    }
+
+    static OffHeapArray ofInts(long length) {
+        return new OffHeapArray(length, 2);
+    }
+
+    static OffHeapArray ofLongs(long length) {
+        return new OffHeapArray(length, 3);
+    }
+
+    static OffHeapArray ofDoubles(long length) {
+        return new OffHeapArray(length, 3);
+    }
+
+    //========================================================
+    // Access
+    //========================================================
+
+    long length() {
+        return length;
+    }
+
+    /**
+     * Number of off-heap bytes held by this array.
+     */
+    long byteSize() {
+        return length << elementShift;
+    }
+
+    private ByteBuffer chunk(long offset) {
+        if (chunks == null) {
+            throw new IllegalStateException("The off-heap array is closed.");
+        }
+        return chunks[(int) (offset >>> CHUNK_SHIFT)];
+    }
+
+    byte getByte(long index) {
+        return chunk(index).get((int) (index & CHUNK_MASK));
+    }
+
+    void putByte(long index, byte value) {
+        chunk(index).put((int) (index & CHUNK_MASK), value);
+    }
+
+    int getInt(long index) {
+        long offset = index << 2;
+        return chunk(offset).getInt((int) (offset & CHUNK_MASK));
+    }
+
+    void putInt(long index, int value) {
+        long offset = index << 2;
+        chunk(offset).putInt((int) (offset & CHUNK_MASK), value);
+    }
+
+    long getLong(long index) {
+        long offset = index << 3;
+        return chunk(offset).getLong((int) (offset & CHUNK_MASK));
+    }
+
+    void putLong(long index, long value) {
+        long offset = index << 3;
+        chunk(offset).putLong((int) (offset & CHUNK_MASK), value);
+    }
+
+    double getDouble(long index) {
+        long offset = index << 3;
+        return chunk(offset).getDouble((int) (offset & CHUNK_MASK));
+    }
+
+    void putDouble(long index, double value) {
+        long offset = index << 3;
+        chunk(offset).putDouble((int) (offset & CHUNK_MASK), value);
+    }
+
+    /**
+     * Copy bytes into the given array.
+     *
+     * @param index Byte index to start from.
+     * @param dst   Destination array; it is filled completely.
+     */
+    void getBytes(long index, byte[] dst) {
+        int done = 0;
+        while (done < dst.length) {
+            long offset = index + done;
+            ByteBuffer buf = chunk(offset).duplicate();
+            int pos = (int) (offset & CHUNK_MASK);
+            int n = Math.min(dst.length - done, buf.capacity() - pos);
+            buf.position(pos);
+            buf.get(dst, done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Copy the given bytes into the array.
+     *
+     * @param index Byte index to start from.
+     * @param src   Bytes to copy.
+     */
+    void putBytes(long index, byte[] src) {
+        int done = 0;
+        while (done < src.length) {
+            long offset = index + done;
+            ByteBuffer buf = chunk(offset).duplicate();
+            int pos = (int) (offset & CHUNK_MASK);
+            int n = Math.min(src.length - done, buf.capacity() - pos);
+            buf.position(pos);
+            buf.put(src, done, n);
+            done += n;
+        }
+    }
+
+    //========================================================
+    // Life cycle
+    //========================================================
+
+    boolean isClosed() {
+        return chunks == null;
+    }
+
+    /**
+     * Release the off-heap memory.
+     * The buffers are freed immediately when the JDK allows it, otherwise they are left to the garbage collector.
+     * The array is not guarded against concurrent readers, so the owner has to make sure no thread
+     * reads it anymore (see the reference counting of {@link OffHeapIndex}).
+     */
+    @Override
+    public void close() {
+        if (chunks == null) {
+            return;
+        }
+        ByteBuffer[] released = chunks;
+        chunks = null;
+        for (ByteBuffer buf : released) {
+            freeDirectBuffer(buf);
+        }
+    }
+
+    private static final Object unsafe;
+    private static final Method invokeCleaner;
+
+    static {
+        Object u = null;
+        Method m = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+            m = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            CoreSBR.logger.fine("Explicit freeing of direct buffers is not available: " + e.getMessage());
+        }
+        unsafe = u;
+        invokeCleaner = m;
+    }
+
+    private static void freeDirectBuffer(ByteBuffer buf) {
+        if (invokeCleaner == null || buf.capacity() == 0) {
+            return;
+        }
+        try {
+            invokeCleaner.invoke(unsafe, buf);
+        } catch (Exception e) {
+            CoreSBR.logger.fine("Could not free a direct buffer: " + e.getMessage());
+        }
+    }
+}
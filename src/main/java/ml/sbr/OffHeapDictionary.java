@@ -0,0 +1,149 @@
+package main.java.ml.sbr;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Off-heap dictionary of distinct strings with dense integer ids.
+ * The names are kept as UTF-8 bytes; the lookup is done with an open addressing hash table of ids.
+ */
+final class OffHeapDictionary implements AutoCloseable {
+
+    private final int size;
+    private final int mask;
+
+    // Name i occupies the bytes in [offsets[i], offsets[i+1])
+    private final OffHeapArray offsets;
+    private final OffHeapArray bytes;
+
+    // Hash table slots hold id + 1; zero marks an empty slot
+    private final OffHeapArray slots;
+
+    //========================================================
+    // Creation
+    //========================================================
+
+    /**
+     * Make a dictionary from a list of distinct names; the id of a name is its position in the list.
+     *
+     * @param names A list of distinct strings.
+     */
+    OffHeapDictionary(List<String> names) {
+        this.size = names.size();
+
+        long nbytes = 0;
+        for (String name : names) {
+            nbytes += name.getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        this.offsets = OffHeapArray.ofLongs(size + 1L);
+        this.bytes = OffHeapArray.ofBytes(nbytes);
+
+        int capacity = Integer.highestOneBit(Math.max(2 * size, 2) - 1) << 1;
+        this.mask = capacity - 1;
+        this.slots = OffHeapArray.ofInts(capacity);
+
+        long pos = 0;
+        for (int i = 0; i < size; i++) {
+            String name = names.get(i);
+            byte[] b = name.getBytes(StandardCharsets.UTF_8);
+
+            this.offsets.putLong(i, pos);
+            this.bytes.putBytes(pos, b);
+            pos += b.length;
+
+            int slot = spread(name.hashCode()) & mask;
+            while (this.slots.getInt(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.slots.putInt(slot, i + 1);
+        }
+        this.offsets.putLong(size, pos);
+    }
+
+    private static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    //========================================================
+    // Lookup
+    //========================================================
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Id of a name.
+     *
+     * @param name A string.
+     * @return The id of the name or -1 if the name is not in the dictionary.
+     */
+    int indexOf(String name) {
+        if (name == null) {
+            return -1;
+        }
+
+        byte[] b = null;
+        int slot = spread(name.hashCode()) & mask;
+
+        int entry;
+        while ((entry = slots.getInt(slot)) != 0) {
+            int id = entry - 1;
+            long from = offsets.getLong(id);
+            long to = offsets.getLong(id + 1L);
+
+            if (b == null) {
+                b = name.getBytes(StandardCharsets.UTF_8);
+            }
+
+            if (to - from == b.length && sameBytes(from, b)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private boolean sameBytes(long from, byte[] b) {
+        for (int k = 0; k < b.length; k++) {
+            if (bytes.getByte(from + k) != b[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean contains(String name) {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * Name of an id. A new string is decoded on each call.
+     */
+    String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("Dictionary id " + id + " is out of range.");
+        }
+        long from = offsets.getLong(id);
+        byte[] b = new byte[(int) (offsets.getLong(id + 1L) - from)];
+        bytes.getBytes(from, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    //========================================================
+    // Life cycle
+    //========================================================
+
+    long byteSize() {
+        return offsets.byteSize() + bytes.byteSize() + slots.byteSize();
+    }
+
+    @Override
+    public void close() {
+        for (OffHeapArray a : Arrays.asList(offsets, bytes, slots)) {
+            a.close();
+        }
+    }
+}
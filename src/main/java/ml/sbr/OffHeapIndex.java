@@ -0,0 +1,422 @@
+package main.java.ml.sbr;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Off-heap form of the tag and item inverse indexes.
+ * Both indexes are kept in compressed sparse row (CSR) format:
+ * the postings of row r are at positions [pointers[r], pointers[r+1]) of the ids and weights arrays.
+ * The tag rows are the tag inverse indexes; the item rows are their transpose.
+ * Optionally, tags with postings for at least a given fraction of the items also get dense weight rows
+ * over all items, which are accumulated with the bulk kernels of {@link ScoringKernel}.
+ * The dense rows are heap arrays, so the Vector API kernel loads them the same way on every JDK version.
+ * A dense row is kept in addition to the sparse postings of its tag and costs 8 bytes per item,
+ * so dense rows are off by default.
+ *
+ * Concurrency: the index is read-only after creation and can be read by many threads.
+ * Readers bracket their access with {@link #acquire()} and {@link #release()}.
+ * {@link #close()} only marks the index closed; the off-heap memory is freed when the last reader releases it,
+ * so memory is never freed under an in-flight read. Acquiring a closed index throws IllegalStateException.
+ * Lazy result objects (cursors, batch profiles) {@link #pin} the index, so they stay readable after it is closed.
+ */
+final class OffHeapIndex implements AutoCloseable {
+
+    final OffHeapDictionary tags;
+    final OffHeapDictionary items;
+
+    // Tag inverse indexes: tag -> (item, weight)
+    final OffHeapArray tagPointers;
+    final OffHeapArray tagItemIds;
+    final OffHeapArray tagWeights;
+
+    // Item inverse indexes: item -> (tag, weight)
+    final OffHeapArray itemPointers;
+    final OffHeapArray itemTagIds;
+    final OffHeapArray itemWeights;
+
+    // Dense tag rows: tag -> dense row index (or -1), the (heap) rows of item weights, and their support bit sets
+    final OffHeapArray denseRowIndexes;
+    final double[][] denseRows;
+    final OffHeapArray denseSupports;
+
+    private volatile boolean closed = false;
+
+    // Number of readers holding the index; FREED once the memory is (being) freed
+    private static final int FREED = Integer.MIN_VALUE;
+    private final AtomicInteger readers = new AtomicInteger();
+
+    // Releases the pins of lazy result objects that are dropped without being closed
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private OffHeapIndex(OffHeapDictionary tags, OffHeapDictionary items,
+                         OffHeapArray tagPointers, OffHeapArray tagItemIds, OffHeapArray tagWeights,
+                         OffHeapArray itemPointers, OffHeapArray itemTagIds, OffHeapArray itemWeights,
+                         OffHeapArray denseRowIndexes, double[][] denseRows, OffHeapArray denseSupports) {
+        this.tags = tags;
+        this.items = items;
+        this.tagPointers = tagPointers;
+        this.tagItemIds = tagItemIds;
+        this.tagWeights = tagWeights;
+        this.itemPointers = itemPointers;
+        this.itemTagIds = itemTagIds;
+        this.itemWeights = itemWeights;
+        this.denseRowIndexes = denseRowIndexes;
+        this.denseRows = denseRows;
+        this.denseSupports = denseSupports;
+    }
+
+    //========================================================
+    // Creation
+    //========================================================
+
+    /**
+     * Make off-heap indexes from SMR matrix triplets.
+     * Tags and items without any non-zero weight are dropped, the same way they are absent from
+     * the hash map indexes made by {@link CoreSBR#ingestCSVMatrices}.
+     *
+     * @param tagNames  Tag names; the triplet tag indexes refer to them.
+     * @param itemNames Item names; the triplet item indexes refer to them.
+     * @param tagIdx    Off-heap ints with the tag index of each triplet.
+     * @param itemIdx   Off-heap ints with the item index of each triplet.
+     * @param weights   Off-heap doubles with the weight of each triplet.
+     * @param denseFraction Minimal fraction of the items a tag has to have in order to get a dense row;
+     *                      zero or less for no dense rows.
+     * @return An off-heap index.
+     */
+    static OffHeapIndex fromTriplets(List<String> tagNames,
+                                     List<String> itemNames,
+                                     OffHeapArray tagIdx,
+                                     OffHeapArray itemIdx,
+                                     OffHeapArray weights,
+                                     double denseFraction) {
+
+        long n = weights.length();
+
+        // Count postings per row
+        long[] tagCounts = new long[tagNames.size()];
+        long[] itemCounts = new long[itemNames.size()];
+        for (long p = 0; p < n; p++) {
+            tagCounts[tagIdx.getInt(p)]++;
+            itemCounts[itemIdx.getInt(p)]++;
+        }
+
+        // Compact ids for the non-empty rows
+        int[] tagMap = new int[tagNames.size()];
+        int[] itemMap = new int[itemNames.size()];
+        List<String> tagDict = compact(tagNames, tagCounts, tagMap);
+        List<String> itemDict = compact(itemNames, itemCounts, itemMap);
+
+        OffHeapArray tagPointers = pointers(tagCounts, tagMap, tagDict.size());
+        OffHeapArray itemPointers = pointers(itemCounts, itemMap, itemDict.size());
+
+        OffHeapArray tagItemIds = OffHeapArray.ofInts(n);
+        OffHeapArray tagWeights = OffHeapArray.ofDoubles(n);
+        OffHeapArray itemTagIds = OffHeapArray.ofInts(n);
+        OffHeapArray itemWeights = OffHeapArray.ofDoubles(n);
+
+        // Scatter the triplets into both CSR layouts
+        long[] tagFill = new long[tagDict.size()];
+        long[] itemFill = new long[itemDict.size()];
+        for (long p = 0; p < n; p++) {
+            int t = tagMap[tagIdx.getInt(p)];
+            int i = itemMap[itemIdx.getInt(p)];
+            double w = weights.getDouble(p);
+
+            long tp = tagPointers.getLong(t) + tagFill[t]++;
+            tagItemIds.putInt(tp, i);
+            tagWeights.putDouble(tp, w);
+
+            long ip = itemPointers.getLong(i) + itemFill[i]++;
+            itemTagIds.putInt(ip, t);
+            itemWeights.putDouble(ip, w);
+        }
+
+        // Dense rows of the tags with many items
+        int nitems = itemDict.size();
+        OffHeapArray denseRowIndexes = OffHeapArray.ofInts(tagDict.size());
+        int ndense = 0;
+        for (int t = 0; t < tagDict.size(); t++) {
+            long len = tagPointers.getLong(t + 1L) - tagPointers.getLong(t);
+            denseRowIndexes.putInt(t, denseFraction > 0 && len >= denseFraction * nitems ? ndense++ : -1);
+        }
+
+        int nwords = (nitems + 63) >>> 6;
+        double[][] denseRows = new double[ndense][nitems];
+        OffHeapArray denseSupports = OffHeapArray.ofLongs((long) ndense * nwords);
+        for (int t = 0; t < tagDict.size(); t++) {
+            int r = denseRowIndexes.getInt(t);
+            if (r >= 0) {
+                long wordStart = (long) r * nwords;
+                for (long p = tagPointers.getLong(t); p < tagPointers.getLong(t + 1L); p++) {
+                    int i = tagItemIds.getInt(p);
+                    denseRows[r][i] += tagWeights.getDouble(p);
+                    denseSupports.putLong(wordStart + (i >>> 6), denseSupports.getLong(wordStart + (i >>> 6)) | (1L << i));
+                }
+            }
+        }
+
+        return new OffHeapIndex(
+                new OffHeapDictionary(tagDict), new OffHeapDictionary(itemDict),
+                tagPointers, tagItemIds, tagWeights,
+                itemPointers, itemTagIds, itemWeights,
+                denseRowIndexes, denseRows, denseSupports);
+    }
+
+    /**
+     * Make off-heap indexes from tag inverse indexes.
+     *
+     * @param tagInverseIndexes A hashmap of (tag to (item to weight)) hashmaps.
+     * @param denseFraction     Minimal fraction of the items a tag has to have in order to get a dense row;
+     *                          zero or less for no dense rows.
+     * @return An off-heap index.
+     */
+    static OffHeapIndex fromTagInverseIndexes(Map<String, Map<String, Double>> tagInverseIndexes, double denseFraction) {
+
+        List<String> tagNames = new ArrayList<>(tagInverseIndexes.keySet());
+        List<String> itemNames = new ArrayList<>();
+        Map<String, Integer> itemIds = new HashMap<>();
+
+        long n = 0;
+        for (Map<String, Double> itemToWeight : tagInverseIndexes.values()) {
+            n += itemToWeight.size();
+        }
+
+        try (OffHeapArray tagIdx = OffHeapArray.ofInts(n);
+             OffHeapArray itemIdx = OffHeapArray.ofInts(n);
+             OffHeapArray weights = OffHeapArray.ofDoubles(n)) {
+
+            long p = 0;
+            for (int t = 0; t < tagNames.size(); t++) {
+                for (Map.Entry<String, Double> entry : tagInverseIndexes.get(tagNames.get(t)).entrySet()) {
+                    Integer i = itemIds.get(entry.getKey());
+                    if (i == null) {
+                        i = itemNames.size();
+                        itemIds.put(entry.getKey(), i);
+                        itemNames.add(entry.getKey());
+                    }
+                    tagIdx.putInt(p, t);
+                    itemIdx.putInt(p, i);
+                    weights.putDouble(p, entry.getValue());
+                    p++;
+                }
+            }
+
+            return fromTriplets(tagNames, itemNames, tagIdx, itemIdx, weights, denseFraction);
+        }
+    }
+
+    private static List<String> compact(List<String> names, long[] counts, int[] map) {
+        List<String> res = new ArrayList<>();
+        for (int k = 0; k < names.size(); k++) {
+            if (counts[k] > 0) {
+                map[k] = res.size();
+                res.add(names.get(k));
+            } else {
+                map[k] = -1;
+            }
+        }
+        return res;
+    }
+
+    private static OffHeapArray pointers(long[] counts, int[] map, int nrows) {
+        OffHeapArray res = OffHeapArray.ofLongs(nrows + 1L);
+        long pos = 0;
+        for (int k = 0; k < counts.length; k++) {
+            if (map[k] >= 0) {
+                res.putLong(map[k], pos);
+                pos += counts[k];
+            }
+        }
+        res.putLong(nrows, pos);
+        return res;
+    }
+
+    //========================================================
+    // Accumulation
+    //========================================================
+
+    /**
+     * Add the weighted items of a tag into a score accumulator over item ids.
+     */
+    void accumulateTag(int tag, double weight, ScoreAccumulator acc) {
+        int r = denseRowIndexes.getInt(tag);
+        if (r >= 0) {
+            accumulateDenseRow(r, weight, acc);
+            return;
+        }
+
+        long to = tagPointers.getLong(tag + 1L);
+        for (long p = tagPointers.getLong(tag); p < to; p++) {
+            acc.add(tagItemIds.getInt(p), weight * tagWeights.getDouble(p));
+        }
+    }
+
+    /**
+     * Add a weighted dense row into a score accumulator over item ids.
+     */
+    private void accumulateDenseRow(int row, double weight, ScoreAccumulator acc) {
+        acc.addDense(weight, denseRows[row]);
+        acc.markDense(denseSupports, (long) row * ((items.size() + 63) >>> 6));
+    }
+
+    /**
+     * Add the weighted tags of an item into a score accumulator over tag ids.
+     */
+    void accumulateItem(int item, double weight, ScoreAccumulator acc) {
+        long to = itemPointers.getLong(item + 1L);
+        for (long p = itemPointers.getLong(item); p < to; p++) {
+            acc.add(itemTagIds.getInt(p), weight * itemWeights.getDouble(p));
+        }
+    }
+
+    long tagRowFrom(int tag) {
+        return tagPointers.getLong(tag);
+    }
+
+    long tagRowTo(int tag) {
+        return tagPointers.getLong(tag + 1L);
+    }
+
+    //========================================================
+    // Life cycle
+    //========================================================
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The off-heap index is closed.");
+        }
+    }
+
+    /**
+     * Register a reader. Each successful call has to be paired with a call of {@link #release()}.
+     *
+     * @throws IllegalStateException if the index is closed.
+     */
+    void acquire() {
+        readers.incrementAndGet();
+        if (closed) {
+            release();
+            throw new IllegalStateException("The off-heap index is closed.");
+        }
+    }
+
+    /**
+     * Unregister a reader; frees the memory if the index is closed and this was the last reader.
+     */
+    void release() {
+        if (readers.decrementAndGet() == 0 && closed) {
+            free();
+        }
+    }
+
+    /**
+     * Register one more reader of an index that is already held, e.g. by a pin.
+     * Unlike {@link #acquire()} this succeeds after the index is closed, as long as its memory is not freed.
+     *
+     * @throws IllegalStateException if the memory of the index is freed.
+     */
+    void retain() {
+        int n;
+        do {
+            n = readers.get();
+            if (n <= 0) {
+                throw new IllegalStateException("The off-heap index is closed and released.");
+            }
+        } while (!readers.compareAndSet(n, n + 1));
+    }
+
+    /**
+     * Hold the index for the lifetime of a lazy result object, so that closing the index
+     * (e.g. when the recommender reloads its data) does not free the memory the object reads.
+     * The caller has to hold the index (e.g. a query making the object); the pin is an additional hold
+     * that is released once, when the holder runs the returned action or else when the holder becomes unreachable.
+     *
+     * @param holder The result object that reads the index.
+     * @return The release action.
+     */
+    Runnable pin(Object holder) {
+        retain();
+        return cleaner.register(holder, this::release)::clean;
+    }
+
+    /**
+     * Name of a tag id. The index has to be held by the caller (e.g. pinned); this can be after it is closed.
+     */
+    String tagName(int id) {
+        retain();
+        try {
+            return tags.get(id);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Name of an item id. The index has to be held by the caller (e.g. pinned); this can be after it is closed.
+     */
+    String itemName(int id) {
+        retain();
+        try {
+            return items.get(id);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Number of off-heap bytes held by the index.
+     */
+    long byteSize() {
+        return tags.byteSize() + items.byteSize() +
+                tagPointers.byteSize() + tagItemIds.byteSize() + tagWeights.byteSize() +
+                itemPointers.byteSize() + itemTagIds.byteSize() + itemWeights.byteSize() +
+                denseRowIndexes.byteSize() + denseSupports.byteSize();
+    }
+
+    /**
+     * Number of heap bytes held by the dense rows.
+     */
+    long denseRowByteSize() {
+        return 8L * denseRows.length * items.size();
+    }
+
+    /**
+     * Close the index. The memory is freed now if there are no readers, otherwise when the last one releases it.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (readers.get() == 0) {
+            free();
+        }
+    }
+
+    /**
+     * Free the memory once there are no readers; the counter is moved from zero to FREED,
+     * so neither a racing acquire nor a retain can see the freed memory.
+     */
+    private void free() {
+        if (!readers.compareAndSet(0, FREED)) {
+            return;
+        }
+        tags.close();
+        items.close();
+        tagPointers.close();
+        tagItemIds.close();
+        tagWeights.close();
+        itemPointers.close();
+        itemTagIds.close();
+        itemWeights.close();
+        denseRowIndexes.close();
+        denseSupports.close();
+    }
+}
@@ -0,0 +1,935 @@
+package main.java.ml.sbr;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Streams Blending Recommender with the inverse indexes stored off-heap.
+ * The dictionaries, postings and weights are kept in direct buffers, so the Java heap holds
+ * only per-request data (score accumulators and results).
+ * The query methods of {@link CoreSBR} are overridden to use the off-heap indexes.
+ * After the indexes are moved off-heap the hash map getters (e.g. getTagInverseIndexes) return null.
+ * The off-heap memory is released with {@link #close()}; querying a closed recommender throws IllegalStateException.
+ *
+ * Concurrency: the query methods can be called from many threads. Each query holds a reference on the
+ * off-heap index for its duration. {@link #close()}, re-ingestion, and {@link #moveOffHeap()} swap out the index
+ * without waiting; the memory of the old index is freed when its last in-flight query finishes.
+ * Queries started after the swap see the new index (or fail with IllegalStateException after close).
+ * Returned cursors and batch profiles hold the index they were made from until they are exhausted or closed,
+ * so they keep working across a reload; the known tags and items are views of the current index.
+ *
+ * Heap: a query uses a score accumulator over the item (or tag) ids, about 13 bytes per id.
+ * The accumulators are taken from bounded pools; at most {@link #getMaxPooledAccumulators()} of each kind
+ * are kept between requests (by default the number of processors), so the retained heap does not grow
+ * with the size of the request thread pool. Concurrent requests beyond that allocate temporary accumulators.
+ * The optional dense tag rows (see {@link #setDenseRowFraction}) are kept on the heap as well.
+ */
+public class OffHeapSBR extends CoreSBR implements AutoCloseable {
+
+    //========================================================
+    // Data members
+    //========================================================
+    volatile OffHeapIndex offHeapIndex;
+
+    // Minimal fraction of the items a tag has to have in order to get a dense row (zero for none)
+    private double denseRowFraction = 0.0;
+
+    // Score accumulators reused across requests
+    private int maxPooledAccumulators = Runtime.getRuntime().availableProcessors();
+    private volatile ScoreAccumulator.Pool itemAccumulators = new ScoreAccumulator.Pool(0, 0);
+    private volatile ScoreAccumulator.Pool tagAccumulators = new ScoreAccumulator.Pool(0, 0);
+
+    //========================================================
+    // Getters
+    //========================================================
+
+    /**
+     * Is the recommender backed by open off-heap indexes?
+     */
+    public boolean isOffHeap() {
+        OffHeapIndex index = offHeapIndex;
+        return index != null && !index.isClosed();
+    }
+
+    /**
+     * Number of off-heap bytes held by the indexes.
+     */
+    public long getOffHeapByteSize() {
+        OffHeapIndex index = offHeapIndex;
+        return index != null && !index.isClosed() ? index.byteSize() : 0L;
+    }
+
+    /**
+     * Number of heap bytes held by the dense tag rows (see {@link #setDenseRowFraction}).
+     */
+    public long getDenseRowByteSize() {
+        OffHeapIndex index = offHeapIndex;
+        return index != null && !index.isClosed() ? index.denseRowByteSize() : 0L;
+    }
+
+    /**
+     * A read-only set view of the tag names of the current off-heap indexes.
+     * @see #namesView
+     */
+    @Override
+    public Set<String> getKnownTags() {
+        OffHeapIndex index = offHeapIndex;
+        if (index != null) {
+            index.checkOpen();
+            return namesView(ix -> ix.tags);
+        }
+        return super.getKnownTags();
+    }
+
+    /**
+     * A read-only set view of the item names of the current off-heap indexes.
+     * @see #namesView
+     */
+    @Override
+    public Set<String> getKnownItems() {
+        OffHeapIndex index = offHeapIndex;
+        if (index != null) {
+            index.checkOpen();
+            return namesView(ix -> ix.items);
+        }
+        return super.getKnownItems();
+    }
+
+    /**
+     * A read-only set view of the names of a dictionary of the current off-heap indexes.
+     * Each operation reads the indexes the recommender has at that moment, so after a reload the view
+     * shows the new names; after {@link #close()} it throws IllegalStateException.
+     * An iteration that spans a reload throws ConcurrentModificationException.
+     */
+    private Set<String> namesView(Function<OffHeapIndex, OffHeapDictionary> dict) {
+        return new AbstractSet<String>() {
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof String)) {
+                    return false;
+                }
+                OffHeapIndex index = acquireIndex();
+                try {
+                    return dict.apply(index).contains((String) o);
+                } finally {
+                    index.release();
+                }
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                OffHeapIndex start = acquireIndex();
+                int size;
+                try {
+                    size = dict.apply(start).size();
+                } finally {
+                    start.release();
+                }
+
+                return new Iterator<String>() {
+                    int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public String next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        OffHeapIndex index = acquireIndex();
+                        try {
+                            if (index != start) {
+                                throw new ConcurrentModificationException("The off-heap indexes were reloaded.");
+                            }
+                            return dict.apply(index).get(next++);
+                        } finally {
+                            index.release();
+                        }
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                OffHeapIndex index = acquireIndex();
+                try {
+                    return dict.apply(index).size();
+                } finally {
+                    index.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * The off-heap item inverse indexes are made at ingestion, so an off-heap recommender is ready when it is open.
+     */
+    @Override
+    public boolean isReady() {
+        OffHeapIndex index = offHeapIndex;
+        return index != null ? !index.isClosed() : super.isReady();
+    }
+
+    /**
+     * Acquire the current off-heap index; the caller has to release it with {@link OffHeapIndex#release()}.
+     */
+    OffHeapIndex acquireIndex() {
+        while (true) {
+            OffHeapIndex index = offHeapIndex;
+            if (index == null) {
+                throw new IllegalStateException("No off-heap indexes; ingest data or call moveOffHeap first.");
+            }
+            try {
+                index.acquire();
+                return index;
+            } catch (IllegalStateException e) {
+                // Retry if the index was swapped out meanwhile; fail if the recommender is closed
+                if (offHeapIndex == index) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public double getDenseRowFraction() {
+        return denseRowFraction;
+    }
+
+    /**
+     * Give the tags with postings for at least the given fraction of the items dense rows,
+     * which are scored with the bulk kernels of {@link ScoringKernel} (vectorized when the Vector API kernel is available).
+     * A dense row is a heap array of 8 bytes per item on top of the sparse postings of its tag.
+     * Zero (the default) means no dense rows. Applies to the next ingestion or {@link #moveOffHeap()}.
+     */
+    public void setDenseRowFraction(double denseRowFraction) {
+        this.denseRowFraction = denseRowFraction;
+    }
+
+    /**
+     * Maximal number of item (and of tag) score accumulators kept between requests.
+     */
+    public int getMaxPooledAccumulators() {
+        return maxPooledAccumulators;
+    }
+
+    public void setMaxPooledAccumulators(int maxPooledAccumulators) {
+        this.maxPooledAccumulators = Math.max(0, maxPooledAccumulators);
+        resetAccumulators(offHeapIndex);
+    }
+
+    private void resetAccumulators(OffHeapIndex index) {
+        itemAccumulators = new ScoreAccumulator.Pool(index != null ? index.items.size() : 0, maxPooledAccumulators);
+        tagAccumulators = new ScoreAccumulator.Pool(index != null ? index.tags.size() : 0, maxPooledAccumulators);
+    }
+
+    /**
+     * Borrow an accumulator over the item ids; it has to be given back with {@link #giveBackItemAccumulator}.
+     */
+    ScoreAccumulator borrowItemAccumulator(OffHeapIndex index) {
+        return itemAccumulators.borrow(index.items.size());
+    }
+
+    void giveBackItemAccumulator(ScoreAccumulator acc) {
+        itemAccumulators.giveBack(acc);
+    }
+
+    /**
+     * Borrow an accumulator over the tag ids; it has to be given back with {@link #giveBackTagAccumulator}.
+     */
+    ScoreAccumulator borrowTagAccumulator(OffHeapIndex index) {
+        return tagAccumulators.borrow(index.tags.size());
+    }
+
+    void giveBackTagAccumulator(ScoreAccumulator acc) {
+        tagAccumulators.giveBack(acc);
+    }
+
+    //========================================================
+    // Ingest a SMR matrix CSV file
+    //========================================================
+
+    /**
+     * Ingest SMR matrix triplet CSV files directly into off-heap indexes.
+     * No hash map indexes are made.
+     *
+     * @param dataPrefix Prefix for the SMR matrix files.
+     */
+    @Override
+    public void ingestCSVMatrices(String dataPrefix) {
+
+        if (dataPrefix == null || dataPrefix.trim().isEmpty()) {
+            logger.warning("Empty data prefix argument.");
+            return;
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        ArrayList<String> rownamesList = readFileToList(dataPrefix + "-rownames.csv");
+        ArrayList<String> colnamesList = readFileToList(dataPrefix + "-colnames.csv");
+
+        // First pass: count the triplets
+        long n = 0;
+        try (InputStream inpStream = getClass().getClassLoader().getResourceAsStream(dataPrefix + ".csv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inpStream))) {
+            reader.readLine(); // skip past header
+            while (reader.readLine() != null) {
+                n++;
+            }
+        } catch (Exception e) {
+            logger.warning(e.getLocalizedMessage());
+            return;
+        }
+
+        // Second pass: fill off-heap triplets
+        try (OffHeapArray tagIdx = OffHeapArray.ofInts(n);
+             OffHeapArray itemIdx = OffHeapArray.ofInts(n);
+             OffHeapArray weights = OffHeapArray.ofDoubles(n);
+             InputStream inpStream = getClass().getClassLoader().getResourceAsStream(dataPrefix + ".csv");
+             BufferedReader reader = new BufferedReader(new InputStreamReader(inpStream))) {
+
+            String line = reader.readLine(); // skip past header
+
+            long p = 0;
+            while ((line = reader.readLine()) != null && p < n) {
+                String[] splitLine = line.split(commaSplit); // split on commas if not in double quotes
+                itemIdx.putInt(p, Integer.parseInt(splitLine[0]) - 1); // -1 to account for 1-indexing
+                tagIdx.putInt(p, Integer.parseInt(splitLine[1]) - 1); // -1 to account for 1-indexing
+                weights.putDouble(p, Double.parseDouble(splitLine[2]));
+                p++;
+            }
+
+            setOffHeapIndex(OffHeapIndex.fromTriplets(colnamesList, rownamesList, tagIdx, itemIdx, weights, denseRowFraction));
+
+            logger.info("Finished off-heap ingesting of the SMR matrix files with prefix: " + dataPrefix);
+        } catch (Exception e) {
+            logger.warning(e.getLocalizedMessage());
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".ingestCSVMatrices for (ms): " + millis);
+    }
+
+    //========================================================
+    // Move off-heap
+    //========================================================
+
+    /**
+     * Move the tag inverse indexes (e.g. given with setTagInverseIndexes) off-heap.
+     * The hash map indexes are dropped afterwards.
+     */
+    public void moveOffHeap() {
+
+        if (this.getTagInverseIndexes() == null) {
+            logger.warning("No tag inverse indexes to move off-heap.");
+            return;
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        setOffHeapIndex(OffHeapIndex.fromTagInverseIndexes(this.getTagInverseIndexes(), denseRowFraction));
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".moveOffHeap for (ms): " + millis);
+    }
+
+    /**
+     * Swap in a new off-heap index; the old one is closed and freed after its in-flight queries finish.
+     */
+    private void setOffHeapIndex(OffHeapIndex index) {
+        OffHeapIndex old = offHeapIndex;
+        offHeapIndex = index;
+        resetAccumulators(index);
+        if (old != null) {
+            old.close();
+        }
+
+        this.setTagInverseIndexes(null);
+        this.setItemInverseIndexes(null);
+        this.setKnownTags(null);
+        this.setKnownItems(null);
+    }
+
+    //========================================================
+    // Transpose tag inverse indexes
+    //========================================================
+
+    /**
+     * The off-heap item inverse indexes are made together with the tag ones, hence
+     * transposing is needed only when the recommender is not off-heap.
+     */
+    @Override
+    public void transposeTagInverseIndexes() {
+        if (offHeapIndex == null) {
+            super.transposeTagInverseIndexes();
+        }
+    }
+
+    //========================================================
+    // Profile
+    //========================================================
+
+    @Override
+    public LinkedHashMap<String, Double> profile(
+            Map<String, Double> items,
+            Boolean normalize,
+            Boolean warn,
+            Boolean ignoreUnknown) {
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator acc = borrowTagAccumulator(index);
+        try {
+            return profile(index, acc, items, normalize, warn, ignoreUnknown);
+        } finally {
+            giveBackTagAccumulator(acc);
+            index.release();
+        }
+    }
+
+    private LinkedHashMap<String, Double> profile(
+            OffHeapIndex index,
+            ScoreAccumulator acc,
+            Map<String, Double> items,
+            Boolean normalize,
+            Boolean warn,
+            Boolean ignoreUnknown) {
+
+        // Start time
+        final long then = System.nanoTime();
+
+        Boolean foundOne = false;
+
+        for (Map.Entry<String, Double> entry : items.entrySet()) {
+
+            int item = index.items.indexOf(entry.getKey());
+
+            if (item >= 0) {
+
+                foundOne = true;
+                index.accumulateItem(item, entry.getValue(), acc);
+
+            } else if (!ignoreUnknown) {
+                String msg = "The item " + entry.getKey() + " is unknown.";
+                logger.warning(msg);
+                if (warn) {
+                    System.out.println(msg);
+                }
+                return new LinkedHashMap<>();
+            }
+        }
+
+        // Check if at least one tag was found
+        if (!foundOne) {
+            String msg = "None of the items is known.";
+            logger.warning(msg);
+            if (warn) {
+                System.out.println(msg);
+            }
+            return new LinkedHashMap<>();
+        }
+
+        // Normalize
+        if (normalize) {
+            acc.normalize(this.getNormalizationSpec());
+        }
+
+        // Reverse sort
+        LinkedHashMap<String, Double> res = toNamedScores(acc, acc.topK(acc.size()), index.tags);
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".profile for (ms): " + millis);
+
+        // Result
+        return res;
+    }
+
+    //========================================================
+    // Batch profiles
+    //========================================================
+
+    /**
+     * Compute profiles for many collections of scored items (cohorts).
+     * The cohorts are kept as item ids and the item rows are accumulated directly from the off-heap indexes,
+     * so no item rows are copied onto the heap.
+     * @see CoreSBR#profiles
+     */
+    @Override
+    public BatchProfiles profiles(
+            List<Map<String, Double>> itemsList,
+            Integer ntags,
+            Boolean normalize,
+            Boolean ignoreUnknown) {
+
+        OffHeapIndex index = acquireIndex();
+        try {
+            return profiles(index, itemsList, ntags, normalize, ignoreUnknown);
+        } finally {
+            index.release();
+        }
+    }
+
+    private BatchProfiles profiles(
+            OffHeapIndex index,
+            List<Map<String, Double>> itemsList,
+            Integer ntags,
+            Boolean normalize,
+            Boolean ignoreUnknown) {
+
+        // Start time
+        final long then = System.nanoTime();
+
+        // The item ids of each cohort
+        int[][] cohortRows = new int[itemsList.size()][];
+        double[][] cohortWeights = new double[itemsList.size()][];
+        int nfailed = 0;
+
+        for (int c = 0; c < itemsList.size(); c++) {
+
+            Map<String, Double> items = itemsList.get(c);
+            int[] r = new int[items.size()];
+            double[] w = new double[items.size()];
+            int m = 0;
+            boolean failed = false;
+
+            for (Map.Entry<String, Double> entry : items.entrySet()) {
+
+                int item = index.items.indexOf(entry.getKey());
+
+                if (item < 0) {
+                    if (!ignoreUnknown) {
+                        failed = true;
+                        break;
+                    }
+                    continue;
+                }
+
+                r[m] = item;
+                w[m] = entry.getValue();
+                m++;
+            }
+
+            if (failed || m == 0) {
+                nfailed++;
+            } else {
+                cohortRows[c] = Arrays.copyOf(r, m);
+                cohortWeights[c] = Arrays.copyOf(w, m);
+            }
+        }
+
+        if (nfailed > 0) {
+            logger.warning("Empty profiles for " + nfailed + " cohorts with unknown items or without known items.");
+        }
+
+        BatchProfiles res = BatchProfiles.compute(index::tagName, index.tags.size(), index::accumulateItem,
+                cohortRows, cohortWeights, ntags, normalize ? this.getNormalizationSpec() : null);
+
+        // The profiles hold the index for their tag names
+        res.onClose(index.pin(res));
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".profiles for (ms): " + millis);
+
+        return res;
+    }
+
+    //========================================================
+    // Recommend by profile
+    //========================================================
+
+    @Override
+    public LinkedHashMap<String, Double> recommendByProfile(
+            Map<String, Double> profile,
+            Integer nrecs,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        // Start time
+        final long then = System.nanoTime();
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator acc = borrowItemAccumulator(index);
+        LinkedHashMap<String, Double> res;
+        try {
+            if (!this.recommendationsAccumulator(index, acc, profile, ignoreUnknown, warn)) {
+                return new LinkedHashMap<>();
+            }
+
+            // Normalize
+            if (normalize) {
+                acc.normalize(this.getNormalizationSpec());
+            }
+
+            // Pick the top nrecs elements; only their names are decoded
+            res = toNamedScores(acc, acc.topK(nrecs), index.items);
+        } finally {
+            giveBackItemAccumulator(acc);
+            index.release();
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".recommendByProfile for (ms): " + millis);
+
+        // Result
+        return res;
+    }
+
+    /**
+     * Blend the off-heap tag inverse indexes of a profile into an item score accumulator.
+     * The caller has to hold the index.
+     *
+     * @return False if an unknown tag is not ignored or none of the tags is known, otherwise true.
+     */
+    boolean recommendationsAccumulator(
+            OffHeapIndex index,
+            ScoreAccumulator acc,
+            Map<String, Double> profile,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        Boolean foundOne = false;
+
+        for (Map.Entry<String, Double> entry : profile.entrySet()) {
+
+            int tag = index.tags.indexOf(entry.getKey());
+
+            if (tag >= 0) {
+
+                foundOne = true;
+                index.accumulateTag(tag, entry.getValue(), acc);
+
+            } else if (!ignoreUnknown) {
+                String msg = "The tag " + entry.getKey() + " is unknown.";
+                logger.warning(msg);
+                if (warn) {
+                    System.out.println(msg);
+                }
+                return false;
+            }
+        }
+
+        // Check if at least one tag was found
+        if (!foundOne) {
+            String msg = "None of the tags is known.";
+            logger.warning(msg);
+            if (warn) {
+                System.out.println(msg);
+            }
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Compute recommendations by profile lazily.
+     * The scores are copied from the accumulator into compact arrays held by the cursor;
+     * item names are decoded only for the consumed recommendations.
+     */
+    @Override
+    public RecommendationCursor recommendByProfileCursor(
+            Map<String, Double> profile,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator acc = borrowItemAccumulator(index);
+        try {
+            if (!this.recommendationsAccumulator(index, acc, profile, ignoreUnknown, warn)) {
+                return RecommendationCursor.empty();
+            }
+
+            // Normalize
+            if (normalize) {
+                acc.normalize(this.getNormalizationSpec());
+            }
+
+            // The cursor holds the index for the names it decodes until it is exhausted or closed
+            RecommendationCursor res = RecommendationCursor.of(acc, index::itemName);
+            res.onClose(index.pin(res));
+            return res;
+        } finally {
+            giveBackItemAccumulator(acc);
+            index.release();
+        }
+    }
+
+    private static LinkedHashMap<String, Double> toNamedScores(ScoreAccumulator acc, int[] ids, OffHeapDictionary dict) {
+        LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+        for (int id : ids) {
+            res.put(dict.get(id), acc.score(id));
+        }
+        return res;
+    }
+
+    //========================================================
+    // Explained recommendations
+    //========================================================
+
+    /**
+     * Compute recommendations by profile together with the top contributing tags of each recommended item.
+     * The contributions are computed in id space: each recommended item row is scanned once
+     * against the profile scores held in a tag accumulator; only the kept contributors are named.
+     * @see CoreSBR#recommendByProfileExplained
+     */
+    @Override
+    public ExplainedRecommendations recommendByProfileExplained(
+            Map<String, Double> profile,
+            Integer nrecs,
+            Integer ncontributors,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        if (!checkContributorsCount(ncontributors, warn)) {
+            return new ExplainedRecommendations(new LinkedHashMap<>(), new LinkedHashMap<>());
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator acc = borrowItemAccumulator(index);
+        ScoreAccumulator profTags = borrowTagAccumulator(index);
+        ScoreAccumulator contributions = borrowTagAccumulator(index);
+
+        LinkedHashMap<String, Double> recs = new LinkedHashMap<>();
+        LinkedHashMap<String, LinkedHashMap<String, Double>> explanations = new LinkedHashMap<>();
+
+        try {
+            if (!this.recommendationsAccumulator(index, acc, profile, ignoreUnknown, warn)) {
+                return new ExplainedRecommendations(recs, explanations);
+            }
+
+            // Normalize
+            if (normalize) {
+                acc.normalize(this.getNormalizationSpec());
+            }
+
+            // Profile scores by tag id
+            for (Map.Entry<String, Double> entry : profile.entrySet()) {
+                int tag = index.tags.indexOf(entry.getKey());
+                if (tag >= 0) {
+                    profTags.add(tag, entry.getValue());
+                }
+            }
+
+            // Contributions of the profile tags to each recommended item
+            ExplainedRecommendations.ContributionBuffer buffer = new ExplainedRecommendations.ContributionBuffer(ncontributors);
+
+            for (int item : acc.topK(nrecs)) {
+
+                long to = index.itemPointers.getLong(item + 1L);
+                for (long p = index.itemPointers.getLong(item); p < to; p++) {
+                    int tag = index.itemTagIds.getInt(p);
+                    double score = profTags.score(tag);
+                    if (score != 0.0) {
+                        contributions.add(tag, score * index.itemWeights.getDouble(p));
+                    }
+                }
+
+                buffer.reset();
+                for (int k = 0; k < contributions.size(); k++) {
+                    int tag = contributions.touchedId(k);
+                    buffer.add(tag, contributions.score(tag));
+                }
+                contributions.clear();
+
+                String name = index.items.get(item);
+                recs.put(name, acc.score(item));
+                explanations.put(name, buffer.toMap(index.tags::get, contributionsFactor(acc.score(item), buffer.total())));
+            }
+        } finally {
+            giveBackTagAccumulator(contributions);
+            giveBackTagAccumulator(profTags);
+            giveBackItemAccumulator(acc);
+            index.release();
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".recommendByProfileExplained for (ms): " + millis);
+
+        return new ExplainedRecommendations(recs, explanations);
+    }
+
+    /**
+     * Compute recommendations by scored items together with the top contributing history items of each recommended item.
+     * The contributions are computed in id space: the row of each recommended item is loaded once into
+     * a tag accumulator and dotted with the off-heap rows of the history items.
+     * @see CoreSBR#recommendExplained
+     */
+    @Override
+    public ExplainedRecommendations recommendExplained(
+            Map<String, Double> items,
+            Integer nrecs,
+            Integer ncontributors,
+            Boolean normalize,
+            Boolean ignoreUnknown,
+            Boolean warn) {
+
+        if (!checkContributorsCount(ncontributors, warn)) {
+            return new ExplainedRecommendations(new LinkedHashMap<>(), new LinkedHashMap<>());
+        }
+
+        // Start time
+        final long then = System.nanoTime();
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator recTags = borrowTagAccumulator(index);
+
+        LinkedHashMap<String, Double> recs;
+        LinkedHashMap<String, LinkedHashMap<String, Double>> explanations = new LinkedHashMap<>();
+
+        try {
+            recs = this.recommend(items, nrecs, normalize, ignoreUnknown, warn);
+
+            // The history items by position
+            String[] hist = new String[items.size()];
+            int[] histIds = new int[items.size()];
+            double[] histScores = new double[items.size()];
+            int nhist = 0;
+            for (Map.Entry<String, Double> entry : items.entrySet()) {
+                int item = index.items.indexOf(entry.getKey());
+                if (item >= 0) {
+                    hist[nhist] = entry.getKey();
+                    histIds[nhist] = item;
+                    histScores[nhist] = entry.getValue();
+                    nhist++;
+                }
+            }
+
+            // Contributions of the history items to each recommended item
+            ExplainedRecommendations.ContributionBuffer buffer = new ExplainedRecommendations.ContributionBuffer(ncontributors);
+
+            for (Map.Entry<String, Double> rec : recs.entrySet()) {
+
+                buffer.reset();
+                int item = index.items.indexOf(rec.getKey());
+
+                if (item >= 0) {
+                    index.accumulateItem(item, 1.0, recTags);
+
+                    for (int k = 0; k < nhist; k++) {
+                        double contribution = 0.0;
+                        long to = index.itemPointers.getLong(histIds[k] + 1L);
+                        for (long p = index.itemPointers.getLong(histIds[k]); p < to; p++) {
+                            contribution += index.itemWeights.getDouble(p) * recTags.score(index.itemTagIds.getInt(p));
+                        }
+
+                        if (contribution != 0.0) {
+                            buffer.add(k, histScores[k] * contribution);
+                        }
+                    }
+
+                    recTags.clear();
+                }
+
+                explanations.put(rec.getKey(), buffer.toMap(k -> hist[k], contributionsFactor(rec.getValue(), buffer.total())));
+            }
+        } finally {
+            giveBackTagAccumulator(recTags);
+            index.release();
+        }
+
+        // Log timing
+        final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - then);
+        logger.info(".recommendExplained for (ms): " + millis);
+
+        return new ExplainedRecommendations(recs, explanations);
+    }
+
+    //========================================================
+    // Filter by profile
+    //========================================================
+
+    @Override
+    public ArrayList<String> filterByProfile(ArrayList<String> prof,
+                                             String type,
+                                             Boolean warn) {
+
+        boolean intersection;
+        if (type.toLowerCase().equals("intersection")) {
+            intersection = true;
+        } else if (type.toLowerCase().equals("union")) {
+            intersection = false;
+        } else {
+            if (warn) { System.out.println("The value of the type argument is expected to be one of \"intersection\" or \"union\"."); }
+            return new ArrayList<String>();
+        }
+
+        if (intersection && prof.isEmpty()) {
+            return new ArrayList<String>(this.getKnownItems());
+        }
+
+        OffHeapIndex index = acquireIndex();
+        ScoreAccumulator acc = borrowItemAccumulator(index);
+        try {
+            // Count for each item the number of profile tags it has
+            int nknown = 0;
+            for (String tagName : prof) {
+                int tag = index.tags.indexOf(tagName);
+                if (tag >= 0) {
+                    nknown++;
+                    for (long p = index.tagRowFrom(tag); p < index.tagRowTo(tag); p++) {
+                        acc.add(index.tagItemIds.getInt(p), 1.0);
+                    }
+                } else if (intersection) {
+                    return new ArrayList<String>();
+                }
+            }
+
+            ArrayList<String> res = new ArrayList<>();
+            for (int k = 0; k < acc.size(); k++) {
+                int item = acc.touchedId(k);
+                if (!intersection || acc.score(item) >= nknown) {
+                    res.add(index.items.get(item));
+                }
+            }
+            return res;
+        } finally {
+            giveBackItemAccumulator(acc);
+            index.release();
+        }
+    }
+
+    //========================================================
+    // Retrieve by query elements
+    //========================================================
+
+    @Override
+    protected Set<String> inverseIndexTags() {
+        return this.getKnownTags();
+    }
+
+    //========================================================
+    // Life cycle
+    //========================================================
+
+    /**
+     * Release the off-heap indexes.
+     * Queries in flight finish normally and the memory is freed after the last of them.
+     */
+    @Override
+    public void close() {
+        OffHeapIndex index = offHeapIndex;
+        if (index != null) {
+            index.close();
+        }
+        resetAccumulators(null);
+    }
+}
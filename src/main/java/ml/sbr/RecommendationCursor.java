@@ -0,0 +1,226 @@
+package main.java.ml.sbr;
+
+import java.util.*;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazy cursor over scored items in descending order of their scores.
+ * The scores are retained in compact primitive arrays and arranged in a max-heap,
+ * so each consumed result costs O(log n) and names are resolved only for the consumed results.
+ * Paging is done with repeated calls of {@link #nextPage(int)}.
+ * Ties are broken by the order in which the items were accumulated.
+ *
+ * A cursor of an off-heap recommender holds the off-heap index it was made from, so paging keeps working
+ * after the recommender is closed or reloads its data; the index is let go when the cursor is exhausted or closed.
+ * Close cursors that are not read to the end (e.g. with try-with-resources); a dropped cursor lets go
+ * of the index only when it is garbage collected. Like other iterators, a cursor is not thread-safe.
+ */
+public class RecommendationCursor implements Iterator<Map.Entry<String, Double>>, AutoCloseable {
+
+    private final int[] ids;
+    private final double[] scores;
+    private final IntFunction<String> names;
+
+    // Max-heap of positions into ids and scores
+    private final int[] heap;
+    private int heapSize;
+    private int consumed;
+
+    // Lets go of the source of the names when the cursor is exhausted or closed
+    private Runnable release = () -> {};
+
+    /**
+     * @param ids    Ids of the scored items.
+     * @param scores Scores of the items; scores[k] is the score of ids[k].
+     * @param names  Resolver of item names from ids.
+     */
+    RecommendationCursor(int[] ids, double[] scores, IntFunction<String> names) {
+        this.ids = ids;
+        this.scores = scores;
+        this.names = names;
+
+        this.heapSize = scores.length;
+        this.heap = new int[heapSize];
+        for (int k = 0; k < heapSize; k++) {
+            heap[k] = k;
+        }
+        for (int k = (heapSize >>> 1) - 1; k >= 0; k--) {
+            siftDown(k);
+        }
+        this.consumed = 0;
+    }
+
+    /**
+     * Make a cursor over the touched ids of an accumulator; the scores are copied.
+     */
+    static RecommendationCursor of(ScoreAccumulator acc, IntFunction<String> names) {
+        int n = acc.size();
+        int[] ids = new int[n];
+        double[] scores = new double[n];
+        for (int k = 0; k < n; k++) {
+            ids[k] = acc.touchedId(k);
+            scores[k] = acc.score(ids[k]);
+        }
+        return new RecommendationCursor(ids, scores, names);
+    }
+
+    /**
+     * Make a cursor over a (hash-)map of scored items.
+     */
+    static RecommendationCursor of(Map<String, Double> mix) {
+        String[] keys = new String[mix.size()];
+        double[] scores = new double[mix.size()];
+        int[] ids = new int[mix.size()];
+        int k = 0;
+        for (Map.Entry<String, Double> entry : mix.entrySet()) {
+            keys[k] = entry.getKey();
+            scores[k] = entry.getValue();
+            ids[k] = k;
+            k++;
+        }
+        return new RecommendationCursor(ids, scores, id -> keys[id]);
+    }
+
+    static RecommendationCursor empty() {
+        return new RecommendationCursor(new int[0], new double[0], id -> null);
+    }
+
+    /**
+     * Set the action that lets go of the source of the names; it is run once the cursor is exhausted or closed.
+     */
+    void onClose(Runnable release) {
+        this.release = release;
+        releaseIfExhausted();
+    }
+
+    //========================================================
+    // Iteration
+    //========================================================
+
+    /**
+     * Total number of scored items.
+     */
+    public int size() {
+        return scores.length;
+    }
+
+    /**
+     * Number of already consumed items.
+     */
+    public int position() {
+        return consumed;
+    }
+
+    /**
+     * Number of items left.
+     */
+    public int remaining() {
+        return heapSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return heapSize > 0;
+    }
+
+    @Override
+    public Map.Entry<String, Double> next() {
+        if (heapSize == 0) {
+            throw new NoSuchElementException();
+        }
+        int k = pop();
+        Map.Entry<String, Double> res = new AbstractMap.SimpleImmutableEntry<>(names.apply(ids[k]), scores[k]);
+        releaseIfExhausted();
+        return res;
+    }
+
+    /**
+     * Take the next page of results.
+     *
+     * @param n A positive integer for the (maximum) number of results.
+     * @return A list of string-double pairs sorted in descending order of their values.
+     */
+    public LinkedHashMap<String, Double> nextPage(int n) {
+        LinkedHashMap<String, Double> res = new LinkedHashMap<>();
+        for (int i = 0; i < n && heapSize > 0; i++) {
+            int k = pop();
+            res.put(names.apply(ids[k]), scores[k]);
+        }
+        releaseIfExhausted();
+        return res;
+    }
+
+    /**
+     * Skip results without resolving their names.
+     *
+     * @param n Number of results to skip.
+     * @return The number of skipped results.
+     */
+    public int skip(int n) {
+        int i = 0;
+        for (; i < n && heapSize > 0; i++) {
+            pop();
+        }
+        releaseIfExhausted();
+        return i;
+    }
+
+    private void releaseIfExhausted() {
+        if (heapSize == 0) {
+            release.run();
+        }
+    }
+
+    /**
+     * Drop the remaining results and let go of the source of their names.
+     */
+    @Override
+    public void close() {
+        heapSize = 0;
+        release.run();
+    }
+
+    /**
+     * Ordered sequential stream of the remaining results.
+     */
+    public Stream<Map.Entry<String, Double>> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliterator(this, heapSize, Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    //========================================================
+    // Max-heap
+    //========================================================
+
+    private boolean before(int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heap[0] = heap[--heapSize];
+        siftDown(0);
+        consumed++;
+        return top;
+    }
+
+    private void siftDown(int i) {
+        int k = heap[i];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], k)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = k;
+    }
+}
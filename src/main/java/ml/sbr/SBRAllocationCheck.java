@@ -0,0 +1,239 @@
+package main.java.ml.sbr;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Level;
+
+import jdk.jfr.Recording;
+
+/**
+ * Allocation regression check of the query methods.
+ * Each operation is run a number of times after a warm-up and the allocated bytes per operation
+ * are measured with the thread allocation counter of the JVM.
+ * The measurement is repeated over several rounds and the smallest figure is taken,
+ * so allocations of the JIT compiler warm-up (e.g. of not yet compiled Vector API code) do not count.
+ * The program exits with status 1 if an operation exceeds its allocation budget.
+ *
+ * System properties:
+ * sbr.alloc.iterations  -- number of measured runs per round (default 200);
+ * sbr.alloc.rounds      -- number of measured rounds per operation (default 5);
+ * sbr.alloc.warmup      -- number of warm-up runs per operation (default 6000);
+ * sbr.alloc.budget.NAME -- allocation budget in bytes per run of the operation NAME;
+ * sbr.alloc.jfr         -- file name for a JFR recording with allocation samples (no recording by default).
+ */
+public class SBRAllocationCheck {
+
+    // Default allocation budgets in bytes per operation; about 1.25 times the measured figures of both kernels
+    private static final Map<String, Long> defaultBudgets = new LinkedHashMap<>();
+
+    static {
+        defaultBudgets.put("smr.recommendByProfile", 5_500L);
+        defaultBudgets.put("smr.recommend", 82_000L);
+        defaultBudgets.put("smr.profile", 15_000L);
+        defaultBudgets.put("smr.recommendCursor.page", 77_000L);
+        defaultBudgets.put("smr.recommendExplained", 88_000L);
+        defaultBudgets.put("smr.recommendByProfileExplained", 9_000L);
+        defaultBudgets.put("smr.offHeap.recommendByProfile", 4_000L);
+        defaultBudgets.put("smr.offHeap.recommend", 29_000L);
+        defaultBudgets.put("smr.offHeap.recommendCursor.page", 35_000L);
+        defaultBudgets.put("smr.offHeap.recommendExplained", 63_000L);
+        defaultBudgets.put("smr.offHeap.recommendByProfileExplained", 39_000L);
+        defaultBudgets.put("smr.offHeap.filterByProfile", 5_000L);
+        defaultBudgets.put("smr.offHeap.retrieveByQueryElements", 9_500L);
+        defaultBudgets.put("synthetic.recommendByProfile", 1_740_000L);
+        defaultBudgets.put("synthetic.recommend", 4_210_000L);
+        defaultBudgets.put("synthetic.offHeap.recommendByProfile", 3_500L);
+        defaultBudgets.put("synthetic.offHeap.recommend", 32_000L);
+        defaultBudgets.put("synthetic.profiles", 390_000L);
+        defaultBudgets.put("synthetic.offHeap.profiles", 89_000L);
+        defaultBudgets.put("synthetic.offHeap.recommendExplained", 71_000L);
+    }
+
+    //========================================================
+    // Synthetic data
+    //========================================================
+
+    /**
+     * Make synthetic tag inverse indexes.
+     *
+     * @param nitems       Number of items.
+     * @param ntags        Number of tags.
+     * @param tagsPerItem  Number of tags of each item.
+     * @param seed         Random generator seed.
+     * @return A hashmap of (tag to (item to weight)) hashmaps.
+     */
+    static Map<String, Map<String, Double>> syntheticTagInverseIndexes(int nitems, int ntags, int tagsPerItem, long seed) {
+        Random rand = new Random(seed);
+        Map<String, Map<String, Double>> res = new HashMap<>();
+        for (int i = 0; i < nitems; i++) {
+            String item = "item-" + i;
+            for (int k = 0; k < tagsPerItem; k++) {
+                // Skewed tag popularity
+                int t = (int) (ntags * Math.pow(rand.nextDouble(), 2));
+                res.computeIfAbsent("tag-" + t, x -> new HashMap<>()).put(item, rand.nextDouble());
+            }
+        }
+        return res;
+    }
+
+    //========================================================
+    // Measurement
+    //========================================================
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Allocated bytes per run of an operation; the minimum over the measured rounds.
+     */
+    static long allocatedBytesPerRun(Runnable operation, int warmup, int rounds, int iterations) {
+        // Warm-up, so the measurement is done with compiled code
+        // (the Vector API kernel allocates until it is compiled)
+        for (int i = 0; i < warmup; i++) {
+            operation.run();
+        }
+
+        // A round can still overlap a late recompilation, hence the minimum
+        long tid = Thread.currentThread().getId();
+        long res = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long before = threadBean.getThreadAllocatedBytes(tid);
+            for (int i = 0; i < iterations; i++) {
+                operation.run();
+            }
+            long after = threadBean.getThreadAllocatedBytes(tid);
+            res = Math.min(res, (after - before) / iterations);
+        }
+
+        return res;
+    }
+
+    //========================================================
+    // Main
+    //========================================================
+
+    public static void main(String[] args) throws Exception {
+
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.out.println("Thread allocated memory measurement is not supported by this JVM.");
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        CoreSBR.logger.setLevel(Level.WARNING);
+
+        int iterations = Integer.getInteger("sbr.alloc.iterations", 200);
+        int rounds = Integer.getInteger("sbr.alloc.rounds", 5);
+        int warmup = Integer.getInteger("sbr.alloc.warmup", 6000);
+
+        Recording recording = null;
+        String jfrFile = System.getProperty("sbr.alloc.jfr");
+        if (jfrFile != null) {
+            recording = new Recording();
+            recording.enable("jdk.ObjectAllocationSample");
+            recording.start();
+        }
+
+        // Example data
+        CoreSBR smr = new CoreSBR();
+        smr.ingestCSVMatrices("WLExampleData-SMR-M01");
+        smr.warmUp();
+
+        OffHeapSBR smrOffHeap = new OffHeapSBR();
+        smrOffHeap.ingestCSVMatrices("WLExampleData-SMR-M01");
+
+        Map<String, Double> prof = new HashMap<>();
+        prof.put("ApplicationArea:Chemistry", 1.0);
+        prof.put("ColumnHeading:Age", 0.5);
+
+        Map<String, Double> hist = new HashMap<>();
+        hist.put("Statistics-Cabbages", 1.0);
+        hist.put("Statistics-PlantGrowth", 2.0);
+
+        // Synthetic data
+        CoreSBR synthetic = new CoreSBR();
+        synthetic.setTagInverseIndexes(syntheticTagInverseIndexes(20000, 2000, 20, 42));
+        synthetic.setKnownTags(synthetic.getTagInverseIndexes().keySet());
+        synthetic.warmUp();
+
+        OffHeapSBR syntheticOffHeap = new OffHeapSBR();
+        syntheticOffHeap.setTagInverseIndexes(syntheticTagInverseIndexes(20000, 2000, 20, 42));
+        syntheticOffHeap.moveOffHeap();
+
+        Map<String, Double> synProf = new HashMap<>();
+        for (int t = 0; t < 5; t++) {
+            synProf.put("tag-" + (t * 37), 1.0);
+        }
+
+        Map<String, Double> synHist = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            synHist.put("item-" + (i * 101), 1.0);
+        }
+
+        // Cohorts for the batch profiles; fewer than one block, so the work stays on the measured thread
+        List<Map<String, Double>> synCohorts = new ArrayList<>();
+        for (int c = 0; c < BatchProfiles.BLOCK_SIZE / 4; c++) {
+            Map<String, Double> cohort = new HashMap<>();
+            for (int i = 0; i < 5; i++) {
+                cohort.put("item-" + ((c * 37 + i * 101) % 20000), 1.0);
+            }
+            synCohorts.add(cohort);
+        }
+
+        ArrayList<String> filterTags = new ArrayList<>(Arrays.asList("ApplicationArea:Chemistry", "ColumnHeading:Age"));
+
+        // Operations
+        Map<String, Runnable> operations = new LinkedHashMap<>();
+        operations.put("smr.recommendByProfile", () -> smr.recommendByProfile(prof, 10, true, false, false));
+        operations.put("smr.recommend", () -> smr.recommend(hist, 10, true, false, false));
+        operations.put("smr.profile", () -> smr.profile(hist, true, false, false));
+        operations.put("smr.recommendCursor.page", () -> smr.recommendCursor(hist, true, false, false).nextPage(20));
+        operations.put("smr.offHeap.recommendByProfile", () -> smrOffHeap.recommendByProfile(prof, 10, true, false, false));
+        operations.put("smr.offHeap.recommend", () -> smrOffHeap.recommend(hist, 10, true, false, false));
+        operations.put("smr.recommendExplained", () -> smr.recommendExplained(hist, 10, 3, true, false, false));
+        operations.put("smr.recommendByProfileExplained", () -> smr.recommendByProfileExplained(prof, 10, 3, true, false, false));
+        operations.put("smr.offHeap.recommendCursor.page", () -> smrOffHeap.recommendCursor(hist, true, false, false).nextPage(20));
+        operations.put("smr.offHeap.recommendExplained", () -> smrOffHeap.recommendExplained(hist, 10, 3, true, false, false));
+        operations.put("smr.offHeap.recommendByProfileExplained", () -> smrOffHeap.recommendByProfileExplained(prof, 10, 3, true, false, false));
+        // CoreSBR.filterByProfile changes the item index key set (intersection), so these are measured off-heap only
+        operations.put("smr.offHeap.filterByProfile", () -> smrOffHeap.filterByProfile(filterTags, "union", false));
+        operations.put("smr.offHeap.retrieveByQueryElements", () -> smrOffHeap.retrieveByQueryElements(
+                new ArrayList<>(Collections.singletonList("ColumnHeading:Age")),
+                new ArrayList<>(Collections.singletonList("ApplicationArea:Chemistry")),
+                new ArrayList<>(), "intersection", "union", false));
+        operations.put("synthetic.recommendByProfile", () -> synthetic.recommendByProfile(synProf, 10, true, false, false));
+        operations.put("synthetic.recommend", () -> synthetic.recommend(synHist, 10, true, false, false));
+        operations.put("synthetic.offHeap.recommendByProfile", () -> syntheticOffHeap.recommendByProfile(synProf, 10, true, false, false));
+        operations.put("synthetic.offHeap.recommend", () -> syntheticOffHeap.recommend(synHist, 10, true, false, false));
+        operations.put("synthetic.profiles", () -> synthetic.profiles(synCohorts, 10, true, true));
+        operations.put("synthetic.offHeap.profiles", () -> syntheticOffHeap.profiles(synCohorts, 10, true, true));
+        operations.put("synthetic.offHeap.recommendExplained", () -> syntheticOffHeap.recommendExplained(synHist, 10, 3, true, false, false));
+
+        // Measure and compare with the budgets
+        int nexceeded = 0;
+        System.out.println(String.format("%-40s %14s %14s", "operation", "bytes/op", "budget"));
+        for (Map.Entry<String, Runnable> entry : operations.entrySet()) {
+            long bytes = allocatedBytesPerRun(entry.getValue(), warmup, rounds, iterations);
+            long budget = Long.getLong("sbr.alloc.budget." + entry.getKey(), defaultBudgets.get(entry.getKey()));
+            boolean exceeded = bytes > budget;
+            if (exceeded) { nexceeded++; }
+            System.out.println(String.format("%-40s %14d %14d%s", entry.getKey(), bytes, budget, exceeded ? "  EXCEEDED" : ""));
+        }
+
+        smrOffHeap.close();
+        syntheticOffHeap.close();
+
+        if (recording != null) {
+            recording.stop();
+            recording.dump(Paths.get(jfrFile));
+            recording.close();
+            System.out.println("JFR recording: " + jfrFile);
+        }
+
+        if (nexceeded > 0) {
+            System.out.println("Allocation budgets exceeded by " + nexceeded + " operations.");
+            System.exit(1);
+        }
+    }
+}
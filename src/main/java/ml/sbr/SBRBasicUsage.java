@@ -19,7 +19,8 @@ public class SBRBasicUsage {
         System.out.println("=========================================================");
         sbrObj.ingestCSVMatrices("WLExampleData-SMR-M01");
 
-        sbrObj.transposeTagInverseIndexes();
+        // Make the item inverse indexes in the background; recommendation by profile is served meanwhile
+        sbrObj.warmUpAsync();
 
         System.out.println("=========================================================");
         Map<String, Double> prof = new HashMap<>();
@@ -30,6 +31,8 @@ public class SBRBasicUsage {
         System.out.println(profileRecs);
 
         System.out.println("=========================================================");
+        sbrObj.warmUp();
+
         Map<String, Double> hist = new HashMap<>();
         hist.put("Statistics-Cabbages", 1.0);
 
@@ -37,6 +40,17 @@ public class SBRBasicUsage {
 
         System.out.println(histRecs);
 
+        System.out.println("=========================================================");
+        RecommendationCursor histCursor = sbrObj.recommendCursor(hist, true, false, true);
+
+        System.out.println(histCursor.nextPage(3));
+        System.out.println(histCursor.nextPage(3));
+
+        System.out.println("=========================================================");
+        ExplainedRecommendations histExplained = sbrObj.recommendExplained(hist, 3, 2, true, false, true);
+
+        System.out.println(histExplained.getExplanations());
+
         System.out.println("=========================================================");
         ArrayList<String> should = new ArrayList<>();
         ArrayList<String> must = new ArrayList<>();
@@ -0,0 +1,150 @@
+package main.java.ml.sbr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+import java.util.logging.Level;
+
+/**
+ * Benchmark of the scalar and the Vector API scoring kernels.
+ * Run with (after compiling the src-vector directory, see README):
+ *   java --add-modules jdk.incubator.vector main.java.ml.sbr.SBRVectorBenchmark
+ * Without the module only the scalar kernel is measured.
+ * The scoring path part times the dense part of a recommendation by profile with each kernel:
+ * the scaled adds of the dense rows of the profile tags followed by max-norm or Euclidean normalization.
+ * The end-to-end part compares the sparse layout with the dense tag rows (see {@link OffHeapSBR#setDenseRowFraction})
+ * using the default kernel; compare runs with -Dsbr.kernel=scalar and -Dsbr.kernel=vector.
+ */
+public class SBRVectorBenchmark {
+
+    /**
+     * Best time in nanoseconds per element over a number of rounds.
+     */
+    static double nanosPerElement(DoubleSupplier operation, int n, int repetitions) {
+        double best = Double.MAX_VALUE;
+        double sink = 0.0;
+        for (int round = 0; round < 10; round++) {
+            final long then = System.nanoTime();
+            for (int r = 0; r < repetitions; r++) {
+                sink += operation.getAsDouble();
+            }
+            best = Math.min(best, (double) (System.nanoTime() - then) / repetitions / n);
+        }
+        if (sink == 42.0) { System.out.print(""); }
+        return best;
+    }
+
+    static void benchmarkKernel(ScoringKernel kernel, int n, int repetitions) {
+        Random rand = new Random(1);
+
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = rand.nextDouble();
+        }
+
+        // A scale and a divisor that are not compile time constants, so the values stay bounded
+        double[] scale = {1e-12 * rand.nextDouble()};
+        double[][] rows = {x};
+        double divisor = 1.0 + rand.nextDouble() * 1e-12;
+
+        double axpy = nanosPerElement(() -> { kernel.axpy(scale, rows, 1, y, n); return y[0]; }, n, repetitions);
+        double maxAbs = nanosPerElement(() -> kernel.maxAbs(x, n), n, repetitions);
+        double sumOfSquares = nanosPerElement(() -> kernel.sumOfSquares(x, n), n, repetitions);
+        double divide = nanosPerElement(() -> { kernel.divide(x, n, divisor); return x[0]; }, n, repetitions);
+
+        System.out.println(String.format("%-22s axpy %.3f  maxAbs %.3f  sumOfSquares %.3f  divide %.3f  (ns/element)",
+                kernel.name(), axpy, maxAbs, sumOfSquares, divide));
+    }
+
+    /**
+     * Dense scoring of a profile: scaled adds of the rows into the scores and normalization.
+     */
+    static double scoreDense(ScoringKernel kernel, double[][] rows, double[] weights, double[] scores, boolean euclidean) {
+        int n = scores.length;
+        Arrays.fill(scores, 0.0);
+        kernel.axpy(weights, rows, rows.length, scores, n);
+        double norm = euclidean ? Math.sqrt(kernel.sumOfSquares(scores, n)) : kernel.maxAbs(scores, n);
+        if (norm != 0.0) {
+            kernel.divide(scores, n, norm);
+        }
+        return scores[0];
+    }
+
+    static void benchmarkScoring(ScoringKernel kernel, int nitems, int nrows) {
+        Random rand = new Random(1);
+
+        double[][] rows = new double[nrows][nitems];
+        double[] weights = new double[nrows];
+        for (int r = 0; r < nrows; r++) {
+            weights[r] = 1.0 + r;
+            for (int i = 0; i < nitems; i++) {
+                rows[r][i] = rand.nextDouble() < 0.5 ? rand.nextDouble() : 0.0;
+            }
+        }
+        double[] scores = new double[nitems];
+
+        int repetitions = Math.max(1, (1 << 24) / (nitems * nrows));
+        double maxNorm = nanosPerElement(() -> scoreDense(kernel, rows, weights, scores, false), nitems, repetitions);
+        double cosine = nanosPerElement(() -> scoreDense(kernel, rows, weights, scores, true), nitems, repetitions);
+
+        System.out.println(String.format("%-22s max-norm %.3f ms  euclidean %.3f ms  (per profile)",
+                kernel.name(), maxNorm * nitems / 1e6, cosine * nitems / 1e6));
+    }
+
+    public static void main(String[] args) {
+
+        CoreSBR.logger.setLevel(Level.WARNING);
+
+        // Cache resident and memory bound sizes
+        for (int n : new int[]{1 << 14, 1 << 20}) {
+            int repetitions = (1 << 24) / n;
+
+            System.out.println("=========================================================");
+            System.out.println("Kernels over " + n + " elements");
+            benchmarkKernel(ScoringKernel.scalar(), n, repetitions);
+            if (ScoringKernel.vector() != null) {
+                benchmarkKernel(ScoringKernel.vector(), n, repetitions);
+            } else {
+                System.out.println("The Vector API kernel is not available; compile src-vector and use --add-modules jdk.incubator.vector.");
+            }
+        }
+
+        // Cache resident and memory bound catalogs
+        for (int nitems : new int[]{50000, 500000}) {
+            System.out.println("=========================================================");
+            System.out.println("Scoring path: 8 dense tag rows over " + nitems + " items");
+            benchmarkScoring(ScoringKernel.scalar(), nitems, 8);
+            if (ScoringKernel.vector() != null) {
+                benchmarkScoring(ScoringKernel.vector(), nitems, 8);
+            }
+        }
+
+        System.out.println("=========================================================");
+        System.out.println("OffHeapSBR.recommendByProfile over few popular tags, kernel: " + ScoringKernel.get().name());
+
+        // Few tags with many items each, so most of the tags qualify for dense rows
+        Map<String, Map<String, Double>> tagInverseIndexes = SBRAllocationCheck.syntheticTagInverseIndexes(50000, 40, 20, 7);
+
+        Map<String, Double> prof = new HashMap<>();
+        for (int t = 0; t < 10; t++) {
+            prof.put("tag-" + t, 1.0 + t);
+        }
+
+        for (double denseRowFraction : new double[]{0.0, 0.25}) {
+            OffHeapSBR sbr = new OffHeapSBR();
+            sbr.setDenseRowFraction(denseRowFraction);
+            sbr.setTagInverseIndexes(tagInverseIndexes);
+            sbr.moveOffHeap();
+
+            double perItem = nanosPerElement(() -> sbr.recommendByProfile(prof, 20, true, false, false).size(), 50000, 200);
+            System.out.println(String.format("%-6s %.3f ms per recommendation, %.1f MB off-heap, %.1f MB dense rows on heap",
+                    denseRowFraction > 0 ? "dense" : "sparse", perItem * 50000 / 1e6,
+                    sbr.getOffHeapByteSize() / 1e6, sbr.getDenseRowByteSize() / 1e6));
+
+            sbr.close();
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package main.java.ml.sbr;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Sparse accumulator of scores over dense integer ids.
+ * Keeps a dense array of scores together with the list of touched ids,
+ * so it can be cleared and reused in time proportional to the number of touched ids.
+ * Untouched scores are always zero.
+ * Dense additions (see {@link #addDense}) do not maintain the list of touched ids; instead the
+ * support bit sets of the dense rows are merged (see {@link #markDense}) and the list is rebuilt when needed.
+ * Consecutive dense additions are held back and added together with one kernel call before the next
+ * sparse addition or read, so the additions to each score stay in the order they were made.
+ */
+final class ScoreAccumulator {
+
+    private final double[] scores;
+    private final boolean[] seen;
+    private final int[] touched;
+    private int count;
+
+    // Is the list of touched ids out of date after dense additions?
+    private boolean stale;
+
+    // Bit set of the ids touched by dense additions
+    private long[] denseSupport;
+
+    // Dense rows (and their scales) held back for one kernel call
+    private static final int PENDING_ROWS = 8;
+    private final double[][] pendingRows = new double[PENDING_ROWS][];
+    private final double[] pendingScales = new double[PENDING_ROWS];
+    private int npending;
+
+    ScoreAccumulator(int capacity) {
+        this.scores = new double[capacity];
+        this.seen = new boolean[capacity];
+        this.touched = new int[capacity];
+        this.count = 0;
+        this.stale = false;
+    }
+
+    int capacity() {
+        return scores.length;
+    }
+
+    /**
+     * Add a value to the score of an id.
+     */
+    void add(int id, double value) {
+        if (npending > 0) {
+            flushDense();
+        }
+        scores[id] += value;
+        if (!seen[id]) {
+            seen[id] = true;
+            touched[count++] = id;
+        }
+    }
+
+    /**
+     * Add a scaled dense row to the scores of all ids.
+     *
+     * @param a Scale.
+     * @param x The row of doubles to add; it has one value per id.
+     * @see ScoringKernel#axpy
+     */
+    void addDense(double a, double[] x) {
+        if (npending == PENDING_ROWS) {
+            flushDense();
+        }
+        pendingScales[npending] = a;
+        pendingRows[npending++] = x;
+        stale = true;
+    }
+
+    private void flushDense() {
+        ScoringKernel.get().axpy(pendingScales, pendingRows, npending, scores, scores.length);
+        Arrays.fill(pendingRows, 0, npending, null);
+        npending = 0;
+    }
+
+    /**
+     * Merge the support of a dense row, i.e. a bit set of the ids with non-zero weights.
+     *
+     * @param words     Off-heap longs with bit sets.
+     * @param wordStart Index of the first word of the bit set.
+     */
+    void markDense(OffHeapArray words, long wordStart) {
+        if (denseSupport == null) {
+            denseSupport = new long[(scores.length + 63) >>> 6];
+        }
+        for (int w = 0; w < denseSupport.length; w++) {
+            denseSupport[w] |= words.getLong(wordStart + w);
+        }
+        stale = true;
+    }
+
+    private void refreshTouched() {
+        if (npending > 0) {
+            flushDense();
+        }
+        if (stale) {
+            count = 0;
+            for (int id = 0; id < seen.length; id++) {
+                if (seen[id] || (denseSupport != null && (denseSupport[id >>> 6] & (1L << id)) != 0)) {
+                    seen[id] = true;
+                    touched[count++] = id;
+                }
+            }
+            stale = false;
+        }
+    }
+
+    /**
+     * Are most of the scores touched, so dense kernels should be used?
+     */
+    private boolean isDense() {
+        return stale || count > (scores.length >>> 2);
+    }
+
+    /**
+     * Number of touched ids.
+     */
+    int size() {
+        refreshTouched();
+        return count;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * The k-th touched id (in order of first touch, or in ascending order after dense additions).
+     */
+    int touchedId(int k) {
+        refreshTouched();
+        return touched[k];
+    }
+
+    double score(int id) {
+        if (npending > 0) {
+            flushDense();
+        }
+        return scores[id];
+    }
+
+    /**
+     * Max-norm of the touched scores.
+     */
+    double maxAbs() {
+        if (npending > 0) {
+            flushDense();
+        }
+        if (isDense()) {
+            // Untouched scores are zero
+            return ScoringKernel.get().maxAbs(scores, scores.length);
+        }
+        double max = 0.0;
+        for (int k = 0; k < count; k++) {
+            double t = Math.abs(scores[touched[k]]);
+            if (t > max) { max = t; }
+        }
+        return max;
+    }
+
+    /**
+     * Apply max-norm normalization to the touched scores. (In place.)
+     * @see AbstractSBR#maxNormalize
+     */
+    void maxNormalize() {
+        if (npending > 0) {
+            flushDense();
+        }
+        if (isDense()) {
+            AbstractSBR.maxNormalize(scores, scores.length);
+            return;
+        }
+        double max = maxAbs();
+        if (max != 0.0) {
+            for (int k = 0; k < count; k++) {
+                scores[touched[k]] /= max;
+            }
+        }
+    }
+
+    /**
+     * Apply Cosine/Euclidean normalization to the touched scores. (In place.)
+     * @see AbstractSBR#cosineNormalize
+     */
+    void cosineNormalize() {
+        if (npending > 0) {
+            flushDense();
+        }
+        if (isDense()) {
+            AbstractSBR.cosineNormalize(scores, scores.length);
+            return;
+        }
+        double norm = 0.0;
+        for (int k = 0; k < count; k++) {
+            double t = scores[touched[k]];
+            norm += t * t;
+        }
+        norm = Math.sqrt(norm);
+        if (norm != 0.0) {
+            for (int k = 0; k < count; k++) {
+                scores[touched[k]] /= norm;
+            }
+        }
+    }
+
+    /**
+     * Normalize the touched scores with a norm. (In place.)
+     *
+     * @param spec Norm type identifier, "euclidean" (or "cosine") or "max-norm".
+     * @see AbstractSBR#normalize
+     */
+    void normalize(String spec) {
+        if (AbstractSBR.isEuclidean(spec)) {
+            cosineNormalize();
+        } else {
+            maxNormalize();
+        }
+    }
+
+    /**
+     * Reset all touched scores.
+     */
+    void clear() {
+        if (npending > 0) {
+            Arrays.fill(pendingRows, 0, npending, null);
+            npending = 0;
+        }
+        if (isDense()) {
+            Arrays.fill(seen, false);
+            Arrays.fill(scores, 0.0);
+            if (denseSupport != null) {
+                Arrays.fill(denseSupport, 0L);
+            }
+            count = 0;
+            stale = false;
+            return;
+        }
+        for (int k = 0; k < count; k++) {
+            int id = touched[k];
+            seen[id] = false;
+            scores[id] = 0.0;
+        }
+        count = 0;
+    }
+
+    //========================================================
+    // Top-K selection
+    //========================================================
+
+    /**
+     * Ids of the top n scores in descending order. Ties are broken by ascending id.
+     *
+     * @param n Number of ids to select.
+     * @return An array of at most n ids.
+     */
+    int[] topK(int n) {
+        refreshTouched();
+        int k = Math.max(0, Math.min(n, count));
+        if (k == 0) {
+            return new int[0];
+        }
+
+        // Min-heap with the weakest selected id at the root
+        int[] heap = new int[k];
+        int hsize = 0;
+        for (int t = 0; t < count; t++) {
+            int id = touched[t];
+            if (hsize < k) {
+                heap[hsize] = id;
+                siftUp(heap, hsize++);
+            } else if (before(id, heap[0])) {
+                heap[0] = id;
+                siftDown(heap, 0, hsize);
+            }
+        }
+
+        // Pop in ascending order, filling from the back
+        int[] res = new int[k];
+        for (int i = k - 1; i >= 0; i--) {
+            res[i] = heap[0];
+            heap[0] = heap[--hsize];
+            siftDown(heap, 0, hsize);
+        }
+        return res;
+    }
+
+    /**
+     * Does id a rank before id b in the descending order?
+     */
+    boolean before(int a, int b) {
+        double sa = scores[a], sb = scores[b];
+        return sa > sb || (sa == sb && a < b);
+    }
+
+    private void siftUp(int[] heap, int i) {
+        int id = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(heap[parent], id)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = id;
+    }
+
+    private void siftDown(int[] heap, int i, int hsize) {
+        int id = heap[i];
+        int half = hsize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < hsize && before(heap[child], heap[child + 1])) {
+                child++;
+            }
+            if (!before(id, heap[child])) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = id;
+    }
+
+    //========================================================
+    // Pool
+    //========================================================
+
+    /**
+     * Bounded pool of accumulators of one capacity.
+     * At most maxIdle accumulators are kept between requests; extra ones are left to the garbage collector,
+     * so the retained heap does not grow with the number of request threads.
+     */
+    static final class Pool {
+
+        private final int capacity;
+        private final ArrayBlockingQueue<ScoreAccumulator> idle;
+
+        Pool(int capacity, int maxIdle) {
+            this.capacity = capacity;
+            this.idle = maxIdle > 0 ? new ArrayBlockingQueue<>(maxIdle) : null;
+        }
+
+        /**
+         * Take a cleared accumulator; a new one is made if none is idle or the capacity differs from the pooled one.
+         */
+        ScoreAccumulator borrow(int capacity) {
+            ScoreAccumulator acc = capacity == this.capacity && idle != null ? idle.poll() : null;
+            return acc != null ? acc : new ScoreAccumulator(capacity);
+        }
+
+        /**
+         * Return an accumulator to the pool. (Null is ignored.)
+         */
+        void giveBack(ScoreAccumulator acc) {
+            if (acc != null && acc.capacity() == capacity && idle != null) {
+                acc.clear();
+                idle.offer(acc);
+            }
+        }
+    }
+}
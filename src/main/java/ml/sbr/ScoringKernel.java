@@ -0,0 +1,150 @@
+package main.java.ml.sbr;
+
+/**
+ * Bulk numeric kernels used for scoring over dense arrays.
+ * The default kernel is the JDK Vector API one (VectorScoringKernel, compiled from the src-vector directory)
+ * when that class and the module jdk.incubator.vector are present, otherwise the scalar one.
+ * The choice can be forced with the system property sbr.kernel set to "scalar" or "vector".
+ * All kernels give bit-identical results: multiplications and additions are not fused,
+ * and sums are taken in the same order (see {@link #sumOfSquares}).
+ */
+abstract class ScoringKernel {
+
+    // Number of partial sums of the reductions; each partial sum takes every PARTIAL_SUMS-th element
+    static final int PARTIAL_SUMS = 8;
+
+    private static final ScoringKernel scalarKernel = new Scalar();
+    private static final ScoringKernel vectorKernel = loadVectorKernel();
+    private static final ScoringKernel defaultKernel = chooseDefault();
+
+    //========================================================
+    // Kernels
+    //========================================================
+
+    /**
+     * Scaled adds of several rows, i.e. y[i] += a[r] * x[r][i] for i in [0, n) and the rows r in [0, m),
+     * with the rows added to each element in order of r.
+     * The vector kernel adds all rows to a block of elements in one pass, so y is read and written once.
+     */
+    abstract void axpy(double[] a, double[][] x, int m, double[] y, int n);
+
+    /**
+     * Max-norm of the first n values.
+     */
+    abstract double maxAbs(double[] x, int n);
+
+    /**
+     * Sum of the squares of the first n values.
+     * The elements of each block of PARTIAL_SUMS are added into separate partial sums,
+     * the partial sums k and k + PARTIAL_SUMS/2 are paired and the pairs are added in order,
+     * and the squares of the remaining (fewer than PARTIAL_SUMS) elements are added last.
+     */
+    abstract double sumOfSquares(double[] x, int n);
+
+    /**
+     * Divide the first n values by a divisor. (In place.)
+     */
+    abstract void divide(double[] x, int n, double divisor);
+
+    abstract String name();
+
+    //========================================================
+    // Selection
+    //========================================================
+
+    static ScoringKernel get() {
+        return defaultKernel;
+    }
+
+    static ScoringKernel scalar() {
+        return scalarKernel;
+    }
+
+    /**
+     * The Vector API kernel or null if it is not compiled in or the module jdk.incubator.vector is not available.
+     */
+    static ScoringKernel vector() {
+        return vectorKernel;
+    }
+
+    private static ScoringKernel loadVectorKernel() {
+        try {
+            return (ScoringKernel) Class.forName("main.java.ml.sbr.VectorScoringKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (Exception | LinkageError e) {
+            CoreSBR.logger.fine("The Vector API kernel is not available: " + e);
+            return null;
+        }
+    }
+
+    private static ScoringKernel chooseDefault() {
+        String spec = System.getProperty("sbr.kernel", "vector");
+        if (spec.equals("vector") && vectorKernel != null) {
+            return vectorKernel;
+        }
+        return scalarKernel;
+    }
+
+    //========================================================
+    // Scalar kernel
+    //========================================================
+
+    static final class Scalar extends ScoringKernel {
+
+        @Override
+        void axpy(double[] a, double[][] x, int m, double[] y, int n) {
+            for (int r = 0; r < m; r++) {
+                double ar = a[r];
+                double[] xr = x[r];
+                for (int i = 0; i < n; i++) {
+                    y[i] += ar * xr[i];
+                }
+            }
+        }
+
+        @Override
+        double maxAbs(double[] x, int n) {
+            double max = 0.0;
+            for (int i = 0; i < n; i++) {
+                double t = Math.abs(x[i]);
+                if (t > max) { max = t; }
+            }
+            return max;
+        }
+
+        @Override
+        double sumOfSquares(double[] x, int n) {
+            double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0, s4 = 0.0, s5 = 0.0, s6 = 0.0, s7 = 0.0;
+            int bound = n - n % PARTIAL_SUMS;
+            int i = 0;
+            for (; i < bound; i += PARTIAL_SUMS) {
+                s0 += x[i] * x[i];
+                s1 += x[i + 1] * x[i + 1];
+                s2 += x[i + 2] * x[i + 2];
+                s3 += x[i + 3] * x[i + 3];
+                s4 += x[i + 4] * x[i + 4];
+                s5 += x[i + 5] * x[i + 5];
+                s6 += x[i + 6] * x[i + 6];
+                s7 += x[i + 7] * x[i + 7];
+            }
+            double sum = (s0 + s4) + (s1 + s5) + (s2 + s6) + (s3 + s7);
+            for (; i < n; i++) {
+                sum += x[i] * x[i];
+            }
+            return sum;
+        }
+
+        @Override
+        void divide(double[] x, int n, double divisor) {
+            for (int i = 0; i < n; i++) {
+                x[i] /= divisor;
+            }
+        }
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+    }
+}